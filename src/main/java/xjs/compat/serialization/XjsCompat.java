@@ -9,18 +9,26 @@ import xjs.data.serialization.JsonContext;
 import xjs.compat.serialization.parser.HjsonParser;
 import xjs.data.serialization.parser.ParsingFunction;
 import xjs.compat.serialization.parser.UbjsonParser;
+import xjs.compat.serialization.parser.UbjsonRefParser;
 import xjs.compat.serialization.writer.HjsonWriter;
 import xjs.compat.serialization.writer.TxtWriter;
+import xjs.compat.serialization.writer.UbjsonRefWriter;
 import xjs.compat.serialization.writer.UbjsonWriter;
 import xjs.data.serialization.writer.WritingFunction;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
  * Core utilities used by xjs-compat. For internal use only.
  */
 @ApiStatus.Internal
 @SuppressWarnings("unused") // reflective access
 public final class XjsCompat {
+    private static final ThreadLocal<UbjsonParser> UB_PARSERS = new ThreadLocal<>();
+    private static final ThreadLocal<UbjsonWriter> UB_WRITERS = new ThreadLocal<>();
     private static volatile UBTyping ubTyping;
+    private static volatile boolean pooling;
 
     private XjsCompat() {}
 
@@ -28,8 +36,12 @@ public final class XjsCompat {
     static {
         JsonContext.addParser("hjson", ParsingFunction.fromParser(HjsonParser::new));
         JsonContext.addWriter("hjson", WritingFunction.fromWriter(HjsonWriter::new));
-        JsonContext.addParser("ubjson", BinaryParsingFunction.fromParser(UbjsonParser::new));
-        JsonContext.addWriter("ubjson", BinaryWritingFunction.fromWriter(UbjsonWriter::new));
+        JsonContext.addParser("ubjson", BinaryParsingFunction.fromParser(XjsCompat::getUbjsonParser, UbjsonParser::open));
+        JsonContext.addWriter("ubjson", BinaryWritingFunction.fromWriter(
+            XjsCompat::getUbjsonWriter, UbjsonWriter::new, UbjsonWriter::new));
+        JsonContext.addParser("ubjson-refs", BinaryParsingFunction.fromParser(UbjsonRefParser::new, UbjsonRefParser::open));
+        JsonContext.addWriter("ubjson-refs", BinaryWritingFunction.fromWriter(
+            UbjsonRefWriter::new, UbjsonRefWriter::new, UbjsonRefWriter::new));
         JsonContext.addParser("txt", ParsingFunction.fromParser(TxtParser::new));
         JsonContext.addWriter("txt", WritingFunction.fromWriter((f, o) -> new TxtWriter(f)));
     }
@@ -41,4 +53,45 @@ public final class XjsCompat {
     public static void setDefaultUbTyping(UBTyping typing) {
         ubTyping = typing;
     }
+
+    public static boolean isPooling() {
+        return pooling;
+    }
+
+    /**
+     * Enables reusing one UBJSON parser and writer per thread for every
+     * value parsed or written through the {@link JsonContext}, which
+     * avoids reallocating their buffers for each value.
+     *
+     * @param enabled Whether to pool parsers and writers.
+     */
+    public static void setPooling(boolean enabled) {
+        pooling = enabled;
+    }
+
+    private static UbjsonParser getUbjsonParser(final InputStream is) {
+        if (!pooling) {
+            return new UbjsonParser(is);
+        }
+        final UbjsonParser parser = UB_PARSERS.get();
+        if (parser == null) {
+            final UbjsonParser created = new UbjsonParser(is);
+            UB_PARSERS.set(created);
+            return created;
+        }
+        return parser.reset(is);
+    }
+
+    private static UbjsonWriter getUbjsonWriter(final OutputStream os) {
+        if (!pooling) {
+            return new UbjsonWriter(os);
+        }
+        final UbjsonWriter writer = UB_WRITERS.get();
+        if (writer == null) {
+            final UbjsonWriter created = new UbjsonWriter(os);
+            UB_WRITERS.set(created);
+            return created;
+        }
+        return writer.reset(os, ubTyping);
+    }
 }
@@ -45,16 +45,41 @@ public interface BinaryParsingFunction extends ParsingFunction {
     }
 
     static BinaryParsingFunction fromParser(final Function<InputStream, ValueParser> c) {
-        return is -> {
-            final ValueParser parser = c.apply(is);
-            final JsonValue value = parser.parse();
-
-            try {
-                parser.close();
-            } catch (final Exception e) {
-                throw new IOException(e);
+        return is -> parseAndClose(c.apply(is));
+    }
+
+    static BinaryParsingFunction fromParser(
+            final Function<InputStream, ValueParser> c, final FileParserFactory f) {
+        return new BinaryParsingFunction() {
+            @Override
+            public JsonValue parse(final InputStream is) throws IOException {
+                return parseAndClose(c.apply(is));
+            }
+
+            @Override
+            public JsonValue parse(final File file) throws IOException {
+                return parseAndClose(f.create(file));
             }
-            return value;
         };
     }
+
+    private static JsonValue parseAndClose(final ValueParser parser) throws IOException {
+        final JsonValue value = parser.parse();
+
+        try {
+            parser.close();
+        } catch (final Exception e) {
+            throw new IOException(e);
+        }
+        return value;
+    }
+
+    /**
+     * Constructs a parser specialized for reading directly from files,
+     * e.g. by mapping them into memory.
+     */
+    @FunctionalInterface
+    interface FileParserFactory {
+        ValueParser create(final File file) throws IOException;
+    }
 }
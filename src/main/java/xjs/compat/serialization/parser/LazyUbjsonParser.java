@@ -0,0 +1,124 @@
+package xjs.compat.serialization.parser;
+
+import org.jetbrains.annotations.Nullable;
+import xjs.compat.serialization.util.UBKeyCache;
+import xjs.compat.serialization.util.UBLimits;
+import xjs.compat.serialization.util.UBMarker;
+import xjs.data.JsonLiteral;
+import xjs.data.JsonReference;
+import xjs.data.JsonValue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A UBJSON parser which defers decoding nested containers until they
+ * are first accessed. Only the offset of each nested array or object is
+ * recorded while parsing its parent, which is especially cheap for
+ * containers of fixed-width, typed values.
+ *
+ * <p>Because decoding happens after parsing, this parser requires the
+ * whole document to be available in memory, e.g. as a byte array or a
+ * {@link java.nio.MappedByteBuffer}. The source must not be modified
+ * while any lazy values remain unread.
+ */
+public class LazyUbjsonParser extends UbjsonParser {
+
+    public LazyUbjsonParser(final byte[] bytes) {
+        super(bytes);
+    }
+
+    public LazyUbjsonParser(final byte[] bytes, final int offset, final int length) {
+        super(bytes, offset, length);
+    }
+
+    public LazyUbjsonParser(final ByteBuffer buffer) {
+        super(buffer);
+    }
+
+    @Override
+    protected JsonReference readReference(final byte type) throws IOException {
+        if (type != UBMarker.ARRAY_START && type != UBMarker.OBJ_START) {
+            return super.readReference(type);
+        }
+        final LazyReference reference = new LazyReference(this, type);
+        this.skipValue(type);
+        return reference;
+    }
+
+    /**
+     * A reference to a container which has not yet been decoded.
+     */
+    public static class LazyReference extends JsonReference {
+        private ByteBuffer source;
+        private final int position;
+        private final byte type;
+        private final @Nullable UBKeyCache keyCache;
+        private final UBLimits limits;
+        private final boolean numberArrays;
+        private final int depth;
+        private final long start;
+
+        /**
+         * Records the position of a container along with the settings and
+         * depth of the parser reading it, so that it is later decoded under
+         * the same limits.
+         *
+         * @param parser The parser positioned just after the container's marker.
+         * @param type   The marker of the container.
+         */
+        protected LazyReference(final LazyUbjsonParser parser, final byte type) {
+            super(JsonLiteral.jsonNull());
+            this.source = parser.buffer;
+            this.position = parser.buffer.position();
+            this.type = type;
+            this.keyCache = parser.keyCache;
+            this.limits = parser.limits;
+            this.numberArrays = parser.numberArrays;
+            this.depth = parser.depth;
+            this.start = parser.start;
+        }
+
+        public boolean isDecoded() {
+            return this.source == null;
+        }
+
+        @Override
+        public JsonValue get() {
+            this.decode();
+            return super.get();
+        }
+
+        @Override
+        public JsonValue getOnly() {
+            this.decode();
+            return super.getOnly();
+        }
+
+        @Override
+        public JsonReference set(final JsonValue value) {
+            this.source = null;
+            return super.set(value);
+        }
+
+        protected void decode() {
+            final ByteBuffer source = this.source;
+            if (source == null) {
+                return;
+            }
+            final LazyUbjsonParser parser = new LazyUbjsonParser(source);
+            parser.setKeyCache(this.keyCache);
+            parser.setLimits(this.limits);
+            parser.setNumberArrays(this.numberArrays);
+            parser.depth = this.depth;
+            parser.start = this.start;
+            parser.buffer.position(this.position);
+            try {
+                this.set(parser.readValue(this.type));
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
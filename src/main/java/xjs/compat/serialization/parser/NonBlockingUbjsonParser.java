@@ -0,0 +1,449 @@
+package xjs.compat.serialization.parser;
+
+import org.jetbrains.annotations.Nullable;
+import xjs.compat.serialization.util.UBKeyCache;
+import xjs.compat.serialization.util.UBLimits;
+import xjs.compat.serialization.util.UBMarker;
+import xjs.data.Json;
+import xjs.data.JsonArray;
+import xjs.data.JsonLiteral;
+import xjs.data.JsonObject;
+import xjs.data.JsonReference;
+import xjs.data.JsonValue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A push-style UBJSON parser which may be fed arbitrary chunks of input
+ * as they arrive, e.g. from a non-blocking socket. Its position is kept
+ * in an explicit state machine between calls, and each top-level value
+ * is handed to the consumer as soon as its last byte has been fed.
+ *
+ * <p>Only the bytes of an incomplete number, size, or string are held
+ * back between chunks, and storage for them grows only as they arrive.
+ * Any number of values may be fed consecutively. Since this parser is
+ * likely to face untrusted input, consider setting {@link UBLimits}.
+ *
+ * <pre>{@code
+ *   final NonBlockingUbjsonParser parser =
+ *       new NonBlockingUbjsonParser(value -> handle(value));
+ *   while (channel.read(buffer) > 0) {
+ *       parser.feed(buffer.flip());
+ *       buffer.clear();
+ *   }
+ *   parser.endOfInput();
+ * }</pre>
+ */
+public class NonBlockingUbjsonParser {
+    protected static final int VALUE_TYPE = 0;
+    protected static final int NEXT = 1;
+    protected static final int NUMBER = 2;
+    protected static final int STRING_SIZE_TYPE = 3;
+    protected static final int STRING_SIZE = 4;
+    protected static final int STRING_BYTES = 5;
+    protected static final int HEADER = 6;
+    protected static final int CONTAINER_TYPE = 7;
+    protected static final int SIZE_MARKER = 8;
+    protected static final int COUNT_TYPE = 9;
+    protected static final int COUNT = 10;
+    protected static final int KEY_SIZE_TYPE = 11;
+    protected static final int KEY_SIZE = 12;
+    protected static final int KEY_BYTES = 13;
+    protected static final int MAX_RETAINED = 8192;
+
+    protected final Consumer<JsonValue> consumer;
+    protected @Nullable UBKeyCache keyCache;
+    protected UBLimits limits = UBLimits.NONE;
+
+    protected int state = VALUE_TYPE;
+    protected int need = 1;
+    protected byte current;
+    protected byte[] partial = new byte[16];
+    protected int partialSize;
+    protected long total;
+
+    // containers under construction, with their fixed types and remaining counts
+    protected Object[] containers = new Object[16];
+    protected byte[] types = new byte[16];
+    protected int[] counts = new int[16];
+    protected String[] keys = new String[16];
+    protected boolean[] valueNext = new boolean[16];
+    protected int depth;
+
+    public NonBlockingUbjsonParser(final Consumer<JsonValue> consumer) {
+        this.consumer = consumer;
+    }
+
+    public NonBlockingUbjsonParser setKeyCache(final @Nullable UBKeyCache keyCache) {
+        this.keyCache = keyCache;
+        return this;
+    }
+
+    /**
+     * Bounds the size and depth of each value read by this parser. By
+     * default, values are only limited by the format itself.
+     *
+     * @param limits The limits to enforce.
+     * @return <code>this</code>, for method chaining.
+     */
+    public NonBlockingUbjsonParser setLimits(final UBLimits limits) {
+        this.limits = limits;
+        return this;
+    }
+
+    public void feed(final byte[] bytes, final int offset, final int length) throws IOException {
+        this.feed(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Consumes every remaining byte in the given buffer, emitting any
+     * values which are completed by it.
+     *
+     * @param input The next chunk of input.
+     * @throws IOException If the input is malformed.
+     */
+    public void feed(final ByteBuffer input) throws IOException {
+        final ByteBuffer chunk = input.duplicate().order(ByteOrder.BIG_ENDIAN);
+        try {
+            while (true) {
+                if (this.need == 0) {
+                    this.step(chunk);
+                    continue;
+                }
+                final ByteBuffer in = this.gather(chunk);
+                if (in == null) {
+                    return;
+                }
+                this.checkTotal(this.need);
+                this.step(in);
+                if (this.partial.length > MAX_RETAINED) {
+                    // don't hold on to the storage of a large string
+                    this.partial = new byte[16];
+                }
+            }
+        } finally {
+            input.position(chunk.position());
+        }
+    }
+
+    /**
+     * Indicates that no more input will be fed to this parser.
+     *
+     * @throws IOException If a value is incomplete.
+     */
+    public void endOfInput() throws IOException {
+        if (!this.isIdle()) {
+            throw new IOException("Unexpected end of input");
+        }
+    }
+
+    /**
+     * @return <code>true</code> if no value is partially parsed.
+     */
+    public boolean isIdle() {
+        return this.depth == 0 && this.state == VALUE_TYPE && this.partialSize == 0;
+    }
+
+    protected @Nullable ByteBuffer gather(final ByteBuffer chunk) {
+        final int need = this.need;
+        if (this.partialSize == 0 && chunk.remaining() >= need) {
+            return chunk;
+        }
+        final int n = Math.min(need - this.partialSize, chunk.remaining());
+        final int required = this.partialSize + n;
+        if (this.partial.length < required) {
+            // grow with the bytes received, not the length which was claimed
+            this.partial = Arrays.copyOf(this.partial, Math.min(need, Math.max(required, this.partial.length * 2)));
+        }
+        chunk.get(this.partial, this.partialSize, n);
+        this.partialSize += n;
+        if (this.partialSize < need) {
+            return null;
+        }
+        this.partialSize = 0;
+        return ByteBuffer.wrap(this.partial, 0, need);
+    }
+
+    protected void step(final ByteBuffer in) throws IOException {
+        switch (this.state) {
+            case VALUE_TYPE -> this.onType(in.get());
+            case NEXT -> this.next();
+            case NUMBER -> this.complete(this.readNumber(in));
+            case STRING_SIZE_TYPE -> this.expectSize(STRING_SIZE, in.get());
+            case STRING_SIZE -> {
+                final int size = this.readStringSize(in);
+                if (size == 0) {
+                    this.complete(Json.value(""));
+                } else {
+                    this.expect(STRING_BYTES, size);
+                }
+            }
+            case STRING_BYTES -> this.complete(Json.value(this.readString(in)));
+            case HEADER -> this.onHeader(in.get());
+            case CONTAINER_TYPE -> {
+                this.types[this.depth] = in.get();
+                this.expect(SIZE_MARKER, 1);
+            }
+            case SIZE_MARKER -> {
+                if (in.get() != UBMarker.OPTIMIZED_SIZE) {
+                    throw new IOException("Missing size marker");
+                }
+                this.expect(COUNT_TYPE, 1);
+            }
+            case COUNT_TYPE -> this.expectSize(COUNT, in.get());
+            case COUNT -> {
+                this.counts[this.depth] = this.readContainerSize(in);
+                this.expect(NEXT, 0);
+            }
+            case KEY_SIZE_TYPE -> this.onKeySizeType(in.get());
+            case KEY_SIZE -> {
+                final int size = this.readStringSize(in);
+                if (size == 0) {
+                    this.onKey("");
+                } else {
+                    this.expect(KEY_BYTES, size);
+                }
+            }
+            case KEY_BYTES -> this.onKey(this.readKey(in));
+            default -> throw new IllegalStateException("Unknown state: " + this.state);
+        }
+    }
+
+    protected void expect(final int state, final int need) {
+        this.state = state;
+        this.need = need;
+    }
+
+    protected void expectSize(final int state, final byte sizeType) throws IOException {
+        this.current = sizeType;
+        this.expect(state, switch (sizeType) {
+            case UBMarker.INT8, UBMarker.U_INT8 -> 1;
+            case UBMarker.INT16 -> 2;
+            case UBMarker.INT32 -> 4;
+            case UBMarker.INT64 -> 8;
+            default -> throw new IOException("Not an integer");
+        });
+    }
+
+    protected void onType(final byte type) throws IOException {
+        final int d = this.depth;
+        if (d > 0 && this.counts[d] < 0 && this.containers[d] instanceof List
+                && type == UBMarker.ARRAY_END) {
+            this.close();
+            return;
+        }
+        this.begin(type);
+    }
+
+    protected void begin(final byte type) throws IOException {
+        this.current = type;
+        switch (type) {
+            case UBMarker.NULL -> this.complete(JsonLiteral.jsonNull());
+            case UBMarker.TRUE -> this.complete(JsonLiteral.jsonTrue());
+            case UBMarker.FALSE -> this.complete(JsonLiteral.jsonFalse());
+            case UBMarker.CHAR, UBMarker.INT8, UBMarker.U_INT8 -> this.expect(NUMBER, 1);
+            case UBMarker.INT16 -> this.expect(NUMBER, 2);
+            case UBMarker.INT32, UBMarker.FLOAT32 -> this.expect(NUMBER, 4);
+            case UBMarker.INT64, UBMarker.FLOAT64 -> this.expect(NUMBER, 8);
+            case UBMarker.STRING -> this.expect(STRING_SIZE_TYPE, 1);
+            case UBMarker.ARRAY_START -> this.push(new ArrayList<JsonReference>());
+            case UBMarker.OBJ_START -> this.push(new JsonObject());
+            default -> throw new IOException("Unrecognized marker: " + (char) type);
+        }
+    }
+
+    protected void push(final Object container) throws IOException {
+        if (this.depth >= this.limits.maxDepth()) {
+            throw new IOException("Exceeded max depth of " + this.limits.maxDepth());
+        }
+        final int d = ++this.depth;
+        if (d == this.containers.length) {
+            this.containers = Arrays.copyOf(this.containers, d * 2);
+            this.types = Arrays.copyOf(this.types, d * 2);
+            this.counts = Arrays.copyOf(this.counts, d * 2);
+            this.keys = Arrays.copyOf(this.keys, d * 2);
+            this.valueNext = Arrays.copyOf(this.valueNext, d * 2);
+        }
+        this.containers[d] = container;
+        this.types[d] = 0;
+        this.counts[d] = -1;
+        this.keys[d] = null;
+        this.valueNext[d] = false;
+        this.expect(HEADER, 1);
+    }
+
+    protected void onHeader(final byte marker) throws IOException {
+        if (marker == UBMarker.OPTIMIZED_TYPE) {
+            this.expect(CONTAINER_TYPE, 1);
+        } else if (marker == UBMarker.OPTIMIZED_SIZE) {
+            this.expect(COUNT_TYPE, 1);
+        } else if (this.containers[this.depth] instanceof List) {
+            this.onType(marker);
+        } else {
+            this.onKeySizeType(marker);
+        }
+    }
+
+    protected void onKeySizeType(final byte sizeType) throws IOException {
+        if (this.counts[this.depth] < 0 && sizeType == UBMarker.OBJ_END) {
+            this.close();
+            return;
+        }
+        this.expectSize(KEY_SIZE, sizeType);
+    }
+
+    protected void onKey(final String key) {
+        this.keys[this.depth] = key;
+        this.valueNext[this.depth] = true;
+        this.expect(NEXT, 0);
+    }
+
+    protected void next() throws IOException {
+        final int d = this.depth;
+        if (d == 0) {
+            this.expect(VALUE_TYPE, 1);
+            return;
+        }
+        final boolean isArray = this.containers[d] instanceof List;
+        if (!isArray && !this.valueNext[d]) {
+            if (this.counts[d] == 0) {
+                this.close();
+            } else {
+                if (this.counts[d] > 0) {
+                    this.counts[d]--;
+                }
+                this.expect(KEY_SIZE_TYPE, 1);
+            }
+            return;
+        }
+        if (isArray && this.counts[d] == 0) {
+            this.close();
+            return;
+        }
+        if (isArray && this.counts[d] > 0) {
+            this.counts[d]--;
+        }
+        this.valueNext[d] = false;
+        if (this.types[d] != 0) {
+            this.begin(this.types[d]);
+        } else {
+            this.expect(VALUE_TYPE, 1);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void close() throws IOException {
+        final Object container = this.containers[this.depth];
+        this.containers[this.depth] = null;
+        this.keys[this.depth] = null;
+        this.depth--;
+        if (container instanceof List) {
+            this.complete(new JsonArray(new ArrayList<>((List<JsonReference>) container)));
+        } else {
+            this.complete((JsonObject) container);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void complete(final JsonValue value) throws IOException {
+        final int d = this.depth;
+        final int size;
+        if (d == 0) {
+            this.total = 0;
+            this.consumer.accept(value);
+            size = 0;
+        } else if (this.containers[d] instanceof List) {
+            final List<JsonReference> list = (List<JsonReference>) this.containers[d];
+            list.add(new JsonReference(value));
+            size = list.size();
+        } else {
+            final JsonObject object = (JsonObject) this.containers[d];
+            object.add(this.keys[d], value);
+            size = object.size();
+        }
+        if (size > this.limits.maxContainerSize()) {
+            throw new IOException("Container exceeds limit of " + this.limits.maxContainerSize() + " elements");
+        }
+        this.expect(NEXT, 0);
+    }
+
+    protected void checkTotal(final int size) throws IOException {
+        this.total += size;
+        if (this.total > this.limits.maxTotalBytes()) {
+            throw new IOException("Value exceeds limit of " + this.limits.maxTotalBytes() + " bytes");
+        }
+    }
+
+    protected JsonValue readNumber(final ByteBuffer in) throws IOException {
+        return switch (this.current) {
+            case UBMarker.CHAR, UBMarker.INT8 -> Json.value(in.get());
+            case UBMarker.U_INT8 -> Json.value(in.get() & 0xFF);
+            case UBMarker.INT16 -> Json.value(in.getShort());
+            case UBMarker.INT32 -> Json.value(in.getInt());
+            case UBMarker.INT64 -> Json.value(in.getLong());
+            case UBMarker.FLOAT32 -> Json.value(in.getFloat());
+            case UBMarker.FLOAT64 -> Json.value(in.getDouble());
+            default -> throw new IOException("Not a number: " + (char) this.current);
+        };
+    }
+
+    protected int readSize(final ByteBuffer in) throws IOException {
+        final long size = switch (this.current) {
+            case UBMarker.INT8 -> in.get();
+            case UBMarker.U_INT8 -> in.get() & 0xFF;
+            case UBMarker.INT16 -> in.getShort();
+            case UBMarker.INT32 -> in.getInt();
+            default -> in.getLong();
+        };
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new IOException("Illegal size: " + size);
+        }
+        return (int) size;
+    }
+
+    protected int readStringSize(final ByteBuffer in) throws IOException {
+        final int size = this.readSize(in);
+        if (size > this.limits.maxStringBytes()) {
+            throw new IOException("String exceeds limit of " + this.limits.maxStringBytes() + " bytes");
+        }
+        return size;
+    }
+
+    protected int readContainerSize(final ByteBuffer in) throws IOException {
+        final int size = this.readSize(in);
+        if (size > this.limits.maxContainerSize()) {
+            throw new IOException("Container exceeds limit of " + this.limits.maxContainerSize() + " elements");
+        }
+        return size;
+    }
+
+    protected String readString(final ByteBuffer in) {
+        final int size = this.need;
+        if (in.hasArray()) {
+            final int position = in.position();
+            in.position(position + size);
+            return new String(in.array(), in.arrayOffset() + position, size, StandardCharsets.UTF_8);
+        }
+        final byte[] bytes = new byte[size];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    protected String readKey(final ByteBuffer in) {
+        final UBKeyCache cache = this.keyCache;
+        if (cache == null || !in.hasArray()) {
+            return this.readString(in);
+        }
+        final int size = this.need;
+        final int position = in.position();
+        in.position(position + size);
+        return cache.get(in.array(), in.arrayOffset() + position, size);
+    }
+}
@@ -0,0 +1,259 @@
+package xjs.compat.serialization.parser;
+
+import xjs.compat.serialization.util.UBMarker;
+import xjs.data.JsonArray;
+import xjs.data.JsonObject;
+import xjs.data.JsonReference;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A UBJSON parser which decodes the children of large containers
+ * concurrently. The boundaries of each child are found by a structural
+ * pre-scan, after which ranges of children are decoded on a {@link
+ * ForkJoinPool}. Nested containers are split in the same way.
+ *
+ * <p>Sized containers are split whenever they hold at least
+ * <code>threshold</code> values, except for arrays of a fixed-width type,
+ * which are cheap enough to decode sequentially in bulk. Unsized
+ * containers must be scanned to be counted, so they are only considered
+ * near the root of the document, and are decoded sequentially if they
+ * turn out to be too small.
+ *
+ * <p>Because children are decoded out of order, this parser requires
+ * the whole document to be available in memory.
+ */
+public class ParallelUbjsonParser extends UbjsonParser {
+    protected static final int DEFAULT_THRESHOLD = 1024;
+    protected static final int MAX_SCAN_DEPTH = 2;
+
+    protected final ForkJoinPool pool;
+    protected final int threshold;
+
+    public ParallelUbjsonParser(final byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    public ParallelUbjsonParser(final ByteBuffer buffer) {
+        this(buffer, ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param buffer    The complete UBJSON document.
+     * @param pool      The pool on which to decode children.
+     * @param threshold The minimum number of children to split a container.
+     */
+    public ParallelUbjsonParser(final ByteBuffer buffer, final ForkJoinPool pool, final int threshold) {
+        super(buffer);
+        this.pool = pool;
+        this.threshold = Math.max(threshold, 1);
+    }
+
+    @Override
+    protected JsonArray readOptimizedArray(final int size, final byte type) throws IOException {
+        if (size < this.threshold || this.getFixedSize(type) >= 0) {
+            return super.readOptimizedArray(size, type);
+        }
+        final Children children = new Children(size);
+        for (int i = 0; i < size; i++) {
+            children.add(null, type, this.buffer.position());
+            this.skipValue(type);
+        }
+        return new JsonArray(this.decode(children));
+    }
+
+    @Override
+    protected JsonArray readSizedArray(final int size) throws IOException {
+        if (size < this.threshold) {
+            return super.readSizedArray(size);
+        }
+        final Children children = new Children(size);
+        for (int i = 0; i < size; i++) {
+            final byte type = this.read();
+            children.add(null, type, this.buffer.position());
+            this.skipValue(type);
+        }
+        return new JsonArray(this.decode(children));
+    }
+
+    @Override
+    protected JsonArray readGenericArray(byte type) throws IOException {
+        if (this.depth > MAX_SCAN_DEPTH) {
+            return super.readGenericArray(type);
+        }
+        final byte first = type;
+        final int start = this.buffer.position();
+        final Children children = new Children(16);
+        while (type != UBMarker.ARRAY_END) {
+            this.checkContainerSize(children.size + 1);
+            children.add(null, type, this.buffer.position());
+            this.skipValue(type);
+            type = this.read();
+        }
+        if (children.size < this.threshold) {
+            this.buffer.position(start);
+            return super.readGenericArray(first);
+        }
+        return new JsonArray(this.decode(children));
+    }
+
+    @Override
+    protected JsonObject readOptimizedObject(final int size, final byte type) throws IOException {
+        if (size < this.threshold || this.getFixedSize(type) == 0) {
+            return super.readOptimizedObject(size, type);
+        }
+        final Children children = new Children(size);
+        for (int i = 0; i < size; i++) {
+            children.add(this.readKey(), type, this.buffer.position());
+            this.skipValue(type);
+        }
+        return this.toObject(children, this.decode(children));
+    }
+
+    @Override
+    protected JsonObject readSizedObject(final int size) throws IOException {
+        if (size < this.threshold) {
+            return super.readSizedObject(size);
+        }
+        final Children children = new Children(size);
+        for (int i = 0; i < size; i++) {
+            final String key = this.readKey();
+            final byte type = this.read();
+            children.add(key, type, this.buffer.position());
+            this.skipValue(type);
+        }
+        return this.toObject(children, this.decode(children));
+    }
+
+    @Override
+    protected JsonObject readGenericObject(byte type) throws IOException {
+        if (this.depth > MAX_SCAN_DEPTH) {
+            return super.readGenericObject(type);
+        }
+        final byte first = type;
+        final int start = this.buffer.position();
+        final Children children = new Children(16);
+        while (type != UBMarker.OBJ_END) {
+            this.checkContainerSize(children.size + 1);
+            final String key = this.readKey(type);
+            final byte valueType = this.read();
+            children.add(key, valueType, this.buffer.position());
+            this.skipValue(valueType);
+            type = this.read();
+        }
+        if (children.size < this.threshold) {
+            this.buffer.position(start);
+            return super.readGenericObject(first);
+        }
+        return this.toObject(children, this.decode(children));
+    }
+
+    protected JsonObject toObject(final Children children, final List<JsonReference> references) {
+        final JsonObject object = new JsonObject();
+        for (int i = 0; i < children.size; i++) {
+            object.addReference(children.keys[i], references.get(i));
+        }
+        return object;
+    }
+
+    protected List<JsonReference> decode(final Children children) throws IOException {
+        final JsonReference[] results = new JsonReference[children.size];
+        if (children.size < this.threshold) {
+            this.decodeRange(children, results, 0, children.size);
+            return new ArrayList<>(Arrays.asList(results));
+        }
+        final int chunks = Math.min(children.size, this.pool.getParallelism() * 4);
+        final List<RecursiveAction> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            final int from = (int) ((long) children.size * c / chunks);
+            final int to = (int) ((long) children.size * (c + 1) / chunks);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    try {
+                        ParallelUbjsonParser.this.decodeRange(children, results, from, to);
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+        try {
+            if (ForkJoinTask.getPool() == this.pool) {
+                ForkJoinTask.invokeAll(tasks);
+            } else {
+                this.pool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(tasks);
+                    }
+                });
+            }
+        } catch (final RuntimeException e) {
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof IOException io) {
+                    throw io;
+                }
+            }
+            throw e;
+        }
+        return new ArrayList<>(Arrays.asList(results));
+    }
+
+    protected void decodeRange(
+            final Children children, final JsonReference[] results, final int from, final int to) throws IOException {
+        final ParallelUbjsonParser parser = this.fork();
+        for (int i = from; i < to; i++) {
+            parser.buffer.position(children.positions[i]);
+            results[i] = parser.readReference(children.types[i]);
+        }
+    }
+
+    protected ParallelUbjsonParser fork() {
+        final ParallelUbjsonParser parser =
+            new ParallelUbjsonParser(this.buffer, this.pool, this.threshold);
+        parser.depth = this.depth;
+        parser.start = this.start;
+        parser.keyCache = this.keyCache;
+        parser.numberArrays = this.numberArrays;
+        parser.limits = this.limits;
+        return parser;
+    }
+
+    /**
+     * The keys, types, and positions of every child in a container.
+     */
+    protected static class Children {
+        String[] keys;
+        byte[] types;
+        int[] positions;
+        int size;
+
+        Children(final int capacity) {
+            this.keys = new String[capacity];
+            this.types = new byte[capacity];
+            this.positions = new int[capacity];
+        }
+
+        void add(final String key, final byte type, final int position) {
+            if (this.size == this.types.length) {
+                final int capacity = Math.max(this.size * 2, 16);
+                this.keys = Arrays.copyOf(this.keys, capacity);
+                this.types = Arrays.copyOf(this.types, capacity);
+                this.positions = Arrays.copyOf(this.positions, capacity);
+            }
+            this.keys[this.size] = key;
+            this.types[this.size] = type;
+            this.positions[this.size] = position;
+            this.size++;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package xjs.compat.serialization.parser;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import xjs.data.Json;
 import xjs.data.JsonArray;
 import xjs.data.JsonLiteral;
@@ -8,22 +9,266 @@ import xjs.data.JsonObject;
 import xjs.data.JsonReference;
 import xjs.data.JsonValue;
 import xjs.data.serialization.parser.ValueParser;
+import xjs.compat.serialization.util.UBCodec;
+import xjs.compat.serialization.util.UBKeyCache;
+import xjs.compat.serialization.util.UBLimits;
 import xjs.compat.serialization.util.UBMarker;
+import xjs.compat.serialization.util.UBNumberArray;
+import xjs.compat.serialization.util.UBSummary;
 
 import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class UbjsonParser implements ValueParser {
-    protected final InputStream input;
+    protected static final int DEFAULT_BUFFER_SIZE = 8192;
+    protected static final long MAPPING_THRESHOLD = 1 << 20;
+    protected static final long MAX_MAPPING_SIZE = 1 << 30;
+    protected static final int MAX_PRESIZE = 1 << 12;
+
+    private static final byte OPTIMIZED_ARRAY = 0;
+    private static final byte SIZED_ARRAY = 1;
+    private static final byte GENERIC_ARRAY = 2;
+    private static final byte OPTIMIZED_OBJECT = 3;
+    private static final byte SIZED_OBJECT = 4;
+    private static final byte GENERIC_OBJECT = 5;
+
+    private static final Set<String> CONTAINER_HOOKS = Set.of(
+        "readValue", "readReference", "readArray", "readObject",
+        "readOptimizedArray", "readSizedArray", "readGenericArray",
+        "readOptimizedObject", "readSizedObject", "readGenericObject");
+
+    private static final ClassValue<Boolean> ITERATIVE = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(final Class<?> type) {
+            for (Class<?> c = type; c != UbjsonParser.class; c = c.getSuperclass()) {
+                for (final Method method : c.getDeclaredMethods()) {
+                    // the entry point only delegates to readValue(byte)
+                    if (CONTAINER_HOOKS.contains(method.getName())
+                            && !(method.getName().equals("readValue") && method.getParameterCount() == 0)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    };
+
+    protected InputStream input;
+    protected FileChannel channel;
+    protected ByteBuffer buffer;
+    protected long mappingOffset;
+    protected @Nullable UBKeyCache keyCache;
+    protected byte[] keyBuffer;
+    protected final List<List<JsonReference>> scratch = new ArrayList<>();
+    protected int scratchDepth;
+    protected boolean numberArrays;
+    protected UBLimits limits = UBLimits.NONE;
+    protected int depth;
+    protected long start;
+    protected long consumed;
+    protected CharsetDecoder decoder;
+    protected CharBuffer chars;
+    protected final boolean iterative = ITERATIVE.get(this.getClass());
+    protected byte[] modes = new byte[16];
+    protected byte[] elementTypes = new byte[16];
+    protected int[] remaining = new int[16];
+    protected Object[] containers = new Object[16];
+    protected String[] keys = new String[16];
 
     public UbjsonParser(final File file) throws IOException {
         this(new FileInputStream(file));
     }
 
+    /**
+     * Parses the contents of a file channel by mapping it into memory,
+     * starting at its current position. Regions of the file are mapped
+     * lazily, so documents of any size may be read this way.
+     *
+     * @param channel The source of bytes, which will be closed by this parser.
+     * @throws IOException If the channel cannot be mapped.
+     */
+    public UbjsonParser(final FileChannel channel) throws IOException {
+        this.input = null;
+        this.channel = channel;
+        this.mappingOffset = channel.position();
+        this.buffer = this.map(channel.position(), 0);
+    }
+
+    /**
+     * Parses the contents of an input stream through a buffer of the
+     * default size. See {@link #UbjsonParser(InputStream, int)}.
+     *
+     * @param input The source of bytes, which will be closed by this parser.
+     */
     public UbjsonParser(final InputStream input) {
+        this(input, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Parses the contents of an input stream through a buffer of the given
+     * size.
+     *
+     * <p>The stream is read ahead of the parser by up to a whole buffer at
+     * a time, so any bytes following the last value read may already have
+     * been consumed from the stream. To read a value and then continue
+     * reading the stream elsewhere, keep using this parser, or read from
+     * an array or buffer instead.
+     *
+     * @param input      The source of bytes, which will be closed by this parser.
+     * @param bufferSize The number of bytes to read ahead, at least 8.
+     */
+    public UbjsonParser(final InputStream input, final int bufferSize) {
+        this.input = input;
+        this.channel = null;
+        this.buffer = ByteBuffer.allocate(Math.max(bufferSize, Long.BYTES)).flip();
+    }
+
+    public UbjsonParser(final byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    public UbjsonParser(final byte[] bytes, final int offset, final int length) {
+        this.input = null;
+        this.channel = null;
+        this.buffer = ByteBuffer.wrap(bytes, offset, length);
+    }
+
+    public UbjsonParser(final ByteBuffer buffer) {
+        this.input = null;
+        this.channel = null;
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Opens a parser for the given file, mapping it into memory when it
+     * is large enough to benefit from doing so.
+     *
+     * @param file The file being parsed.
+     * @return A new parser reading from this file.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static UbjsonParser open(final File file) throws IOException {
+        if (file.length() < MAPPING_THRESHOLD) {
+            return new UbjsonParser(file);
+        }
+        return new UbjsonParser(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * Prepares this parser to read from a new input stream, reusing its
+     * buffers and settings. The previous input is not closed.
+     *
+     * @param input The new source of bytes.
+     * @return <code>this</code>, for method chaining.
+     */
+    public UbjsonParser reset(final InputStream input) {
+        if (this.input == null) {
+            this.buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+        }
+        this.buffer.position(0).limit(0);
         this.input = input;
+        this.channel = null;
+        this.resetState();
+        return this;
+    }
+
+    /**
+     * Prepares this parser to read from a new byte array, reusing its
+     * settings. The previous input is not closed.
+     *
+     * @param bytes  The new source of bytes.
+     * @param offset The index of the first byte to read.
+     * @param length The number of bytes to read.
+     * @return <code>this</code>, for method chaining.
+     */
+    public UbjsonParser reset(final byte[] bytes, final int offset, final int length) {
+        this.buffer = ByteBuffer.wrap(bytes, offset, length);
+        this.input = null;
+        this.channel = null;
+        this.resetState();
+        return this;
+    }
+
+    protected void resetState() {
+        this.mappingOffset = 0;
+        this.scratchDepth = 0;
+        this.depth = 0;
+        this.start = 0;
+        this.consumed = 0;
+        for (final List<JsonReference> scratch : this.scratch) {
+            scratch.clear();
+        }
+    }
+
+    /**
+     * Enables interning of object keys through the given cache. Caches
+     * may be shared between parsers to avoid decoding the same keys
+     * across many documents.
+     *
+     * @param keyCache The cache, or <code>null</code> to disable it.
+     * @return <code>this</code>, for method chaining.
+     */
+    public UbjsonParser setKeyCache(final @Nullable UBKeyCache keyCache) {
+        this.keyCache = keyCache;
+        return this;
+    }
+
+    /**
+     * Bounds the size and depth of each value read by this parser. By
+     * default, values are only limited by the format itself.
+     *
+     * @param limits The limits to enforce.
+     * @return <code>this</code>, for method chaining.
+     */
+    public UbjsonParser setLimits(final UBLimits limits) {
+        this.limits = limits;
+        return this;
+    }
+
+    /**
+     * Enables decoding strongly-typed numeric arrays in bulk into {@link
+     * UBNumberArray}s, which avoid allocating a value for each element
+     * until it is accessed.
+     *
+     * @param numberArrays Whether to produce primitive-backed arrays.
+     * @return <code>this</code>, for method chaining.
+     */
+    public UbjsonParser setNumberArrays(final boolean numberArrays) {
+        this.numberArrays = numberArrays;
+        return this;
+    }
+
+    /**
+     * Decodes a single value from a UBJSON document without decoding any
+     * unrelated values. See {@link #extract(String)}.
+     *
+     * @param doc  The complete UBJSON document.
+     * @param path The path to the value, e.g. <code>a.b[3].c</code>.
+     * @return The value at this path, or <code>null</code> if absent.
+     * @throws IOException If the document is malformed.
+     */
+    public static @Nullable JsonValue extract(final byte[] doc, final String path) throws IOException {
+        return new UbjsonParser(doc).extract(path);
     }
 
     @Override
@@ -31,12 +276,691 @@ public class UbjsonParser implements ValueParser {
         return this.readValue();
     }
 
+    /**
+     * Decodes the next value directly into a record or plain Java object,
+     * without building an intermediate {@link JsonObject}. See {@link
+     * UBCodec} for the classes which may be bound this way.
+     *
+     * <p>Unknown keys are skipped, and missing members receive their
+     * default value.
+     *
+     * @param type The class of object to create.
+     * @param <T>  The type of object to create.
+     * @return A new object containing the decoded value.
+     * @throws IOException If the input is malformed or does not match the type.
+     */
+    public <T> T parseRecord(final Class<T> type) throws IOException {
+        this.start = this.position();
+        this.depth = 0;
+        final byte marker = this.read();
+        if (marker != UBMarker.OBJ_START) {
+            throw new IOException("Expected object for " + type.getName() + ": " + (char) marker);
+        }
+        return this.readRecord(UBCodec.of(type));
+    }
+
+    /**
+     * Indicates whether another value follows in the input, as when
+     * reading a stream of concatenated UBJSON records.
+     *
+     * @return <code>true</code>, if the input is not exhausted.
+     * @throws IOException If the input throws an exception.
+     */
+    public boolean hasNext() throws IOException {
+        return !this.isEndOfInput();
+    }
+
+    /**
+     * Reads up to <code>n</code> consecutive values from the input,
+     * reusing this parser and its buffers for each record.
+     *
+     * @param n The maximum number of values to read.
+     * @return The values read, or an empty list at the end of the input.
+     * @throws IOException If the input is malformed or cannot be read.
+     */
+    public List<JsonValue> readBatch(final int n) throws IOException {
+        final List<JsonValue> batch = new ArrayList<>(Math.min(n, 1024));
+        while (batch.size() < n && this.hasNext()) {
+            batch.add(this.readValue());
+        }
+        return batch;
+    }
+
+    /**
+     * Lazily reads every remaining value in the input. Exceptions are
+     * thrown as {@link UncheckedIOException}s.
+     *
+     * @return An iterator over each consecutive value.
+     */
+    public Iterator<JsonValue> iterator() {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    return UbjsonParser.this.hasNext();
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public JsonValue next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return UbjsonParser.this.readValue();
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Lazily reads every remaining value in the input. Exceptions are
+     * thrown as {@link UncheckedIOException}s.
+     *
+     * @return A sequential stream of each consecutive value.
+     */
+    public Stream<JsonValue> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+            this.iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Decodes a single value from the input by walking the given path,
+     * skipping every value that does not lie on it.
+     *
+     * <p>Paths consist of keys separated by dots and array indices in
+     * square brackets, e.g. <code>a.b[3].c</code>. An empty path refers
+     * to the root value.
+     *
+     * @param path The path to the value.
+     * @return The value at this path, or <code>null</code> if absent.
+     * @throws IOException If the input is malformed or cannot be read.
+     */
+    public @Nullable JsonValue extract(final String path) throws IOException {
+        final List<Object> segments = parsePath(path);
+        this.start = this.position();
+        this.depth = 0;
+        byte type = this.read();
+        for (final Object segment : segments) {
+            if (type == UBMarker.ARRAY_START || type == UBMarker.OBJ_START) {
+                this.enterContainer();
+            }
+            if (segment instanceof Integer index) {
+                type = type == UBMarker.ARRAY_START ? this.seekIndex(index) : 0;
+            } else {
+                type = type == UBMarker.OBJ_START ? this.seekKey((String) segment) : 0;
+            }
+            if (type == 0) {
+                return null;
+            }
+        }
+        return this.readValue(type);
+    }
+
+    /**
+     * Verifies that the next value in the input is well-formed without
+     * decoding it. Markers, lengths, UTF-8 sequences, and the balance of
+     * every container are checked, along with the configured limits,
+     * but no {@link JsonValue}s or strings are created.
+     *
+     * @return A summary of the value's shape.
+     * @throws IOException If the value is malformed or cannot be read.
+     */
+    public UBSummary validate() throws IOException {
+        final long start = this.start = this.position();
+        this.depth = 0;
+        byte type = this.read();
+        final byte root = type;
+        int size = 0;
+        int maxDepth = 0;
+        long values = 0;
+        long containers = 0;
+        try {
+            while (true) {
+                values++;
+                if (type == UBMarker.ARRAY_START || type == UBMarker.OBJ_START) {
+                    // typed arrays are skipped without staying on the stack
+                    maxDepth = Math.max(maxDepth, this.depth + 1);
+                    final int skipped = this.openScan(type);
+                    if (++containers == 1) {
+                        size = skipped;
+                    }
+                    values += skipped;
+                } else {
+                    this.validateScalar(type);
+                }
+                while (true) {
+                    if (this.depth == 0) {
+                        return new UBSummary(root, this.position() - start, maxDepth, size, values, containers);
+                    }
+                    final byte next = this.nextScanElement(this.depth - 1);
+                    if (next != 0) {
+                        if (this.depth == 1) {
+                            size++;
+                        }
+                        type = next;
+                        break;
+                    }
+                    this.depth--;
+                }
+            }
+        } finally {
+            this.depth = 0;
+        }
+    }
+
+    /**
+     * Begins scanning a container. Arrays of fixed-width values are
+     * skipped entirely, as they cannot contain any malformed data.
+     *
+     * @param type The marker of the container.
+     * @return The number of values skipped.
+     * @throws IOException If the header is malformed or cannot be read.
+     */
+    private int openScan(final byte type) throws IOException {
+        final boolean array = type == UBMarker.ARRAY_START;
+        final byte marker = this.read();
+        if (marker == UBMarker.OPTIMIZED_TYPE) {
+            final byte elementType = this.read();
+            if (this.read() != UBMarker.OPTIMIZED_SIZE) {
+                throw new IOException("Missing size marker");
+            }
+            final int width = this.getFixedSize(elementType);
+            final int size = this.readContainerSize((array ? 0 : 2) + (width >= 0 ? width : 1));
+            if (array && width >= 0 && elementType != UBMarker.CHAR) {
+                this.enterContainer();
+                this.depth--;
+                this.skip((long) width * size);
+                return size;
+            }
+            this.pushFrame(array ? OPTIMIZED_ARRAY : OPTIMIZED_OBJECT, elementType, size);
+        } else if (marker == UBMarker.OPTIMIZED_SIZE) {
+            this.pushFrame(array ? SIZED_ARRAY : SIZED_OBJECT, (byte) 0, this.readContainerSize(array ? 1 : 3));
+        } else {
+            // generic containers count their elements instead
+            this.pushFrame(array ? GENERIC_ARRAY : GENERIC_OBJECT, marker, 0);
+        }
+        return 0;
+    }
+
+    private byte nextScanElement(final int top) throws IOException {
+        switch (this.modes[top]) {
+            case OPTIMIZED_ARRAY:
+                return this.remaining[top]-- > 0 ? this.elementTypes[top] : 0;
+            case SIZED_ARRAY:
+                return this.remaining[top]-- > 0 ? this.read() : 0;
+            case GENERIC_ARRAY: {
+                byte type = this.elementTypes[top];
+                if (type == 0) {
+                    type = this.read();
+                } else {
+                    this.elementTypes[top] = 0;
+                }
+                if (type == UBMarker.ARRAY_END) {
+                    return 0;
+                }
+                this.checkContainerSize(++this.remaining[top]);
+                return type;
+            }
+            case OPTIMIZED_OBJECT:
+                if (this.remaining[top]-- <= 0) {
+                    return 0;
+                }
+                this.validateString(this.read());
+                return this.elementTypes[top];
+            case SIZED_OBJECT:
+                if (this.remaining[top]-- <= 0) {
+                    return 0;
+                }
+                this.validateString(this.read());
+                return this.read();
+            default: {
+                byte sizeType = this.elementTypes[top];
+                if (sizeType == 0) {
+                    sizeType = this.read();
+                } else {
+                    this.elementTypes[top] = 0;
+                }
+                if (sizeType == UBMarker.OBJ_END) {
+                    return 0;
+                }
+                this.checkContainerSize(++this.remaining[top]);
+                this.validateString(sizeType);
+                return this.read();
+            }
+        }
+    }
+
+    protected void validateScalar(final byte type) throws IOException {
+        if (type == UBMarker.CHAR) {
+            if (this.read() < 0) {
+                throw new IOException("Illegal character");
+            }
+        } else if (type == UBMarker.STRING) {
+            this.validateString(this.read());
+        } else {
+            final int size = this.getFixedSize(type);
+            if (size < 0) {
+                throw new IOException("Unrecognized marker: " + (char) type);
+            }
+            this.skip(size);
+        }
+    }
+
+    protected void validateString(final byte sizeType) throws IOException {
+        this.validateUtf8(this.readStringSize(sizeType));
+    }
+
+    /**
+     * Consumes the next <code>size</code> bytes, verifying that they form
+     * a complete and well-formed UTF-8 sequence.
+     *
+     * @param size The number of bytes to check.
+     * @throws IOException If the bytes are not valid UTF-8.
+     */
+    protected void validateUtf8(int size) throws IOException {
+        int needed = 0;
+        int min = 0x80;
+        int max = 0xBF;
+        while (size > 0) {
+            if (!this.buffer.hasRemaining()) {
+                this.require(1);
+            }
+            final ByteBuffer buffer = this.buffer;
+            final int position = buffer.position();
+            final int end = position + Math.min(buffer.remaining(), size);
+            for (int i = position; i < end; i++) {
+                final int b = buffer.get(i) & 0xFF;
+                if (needed == 0) {
+                    if (b < 0x80) {
+                        continue;
+                    } else if (b < 0xC2) {
+                        throw new IOException("Malformed UTF-8");
+                    } else if (b < 0xE0) {
+                        needed = 1;
+                    } else if (b < 0xF0) {
+                        needed = 2;
+                        min = b == 0xE0 ? 0xA0 : 0x80;
+                        max = b == 0xED ? 0x9F : 0xBF;
+                    } else if (b < 0xF5) {
+                        needed = 3;
+                        min = b == 0xF0 ? 0x90 : 0x80;
+                        max = b == 0xF4 ? 0x8F : 0xBF;
+                    } else {
+                        throw new IOException("Malformed UTF-8");
+                    }
+                } else if (b < min || b > max) {
+                    throw new IOException("Malformed UTF-8");
+                } else {
+                    needed--;
+                    min = 0x80;
+                    max = 0xBF;
+                }
+            }
+            buffer.position(end);
+            size -= end - position;
+        }
+        if (needed != 0) {
+            throw new IOException("Truncated UTF-8");
+        }
+    }
+
+    protected static List<Object> parsePath(final String path) {
+        final List<Object> segments = new ArrayList<>();
+        int i = 0;
+        while (i < path.length()) {
+            final char c = path.charAt(i);
+            if (c == '.') {
+                i++;
+            } else if (c == '[') {
+                final int end = path.indexOf(']', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed index in path: " + path);
+                }
+                final int index = Integer.parseInt(path.substring(i + 1, end).trim());
+                if (index < 0) {
+                    throw new IllegalArgumentException("Negative index in path: " + path);
+                }
+                segments.add(index);
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                segments.add(path.substring(i, end));
+                i = end;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Advances to an element in the current array.
+     *
+     * @param index The index of the element.
+     * @return The element's type, or 0 if out of bounds.
+     * @throws IOException If the input is malformed or cannot be read.
+     */
+    protected byte seekIndex(final int index) throws IOException {
+        final byte marker = this.read();
+        if (marker == UBMarker.OPTIMIZED_TYPE) {
+            final byte type = this.read();
+            if (this.read() != UBMarker.OPTIMIZED_SIZE) {
+                throw new IOException("Missing size marker");
+            }
+            final int width = this.getFixedSize(type);
+            if (index >= this.readContainerSize(width >= 0 ? width : 1)) {
+                return 0;
+            }
+            this.skipOptimizedArray(index, type);
+            return type;
+        } else if (marker == UBMarker.OPTIMIZED_SIZE) {
+            if (index >= this.readContainerSize(1)) {
+                return 0;
+            }
+            this.skipSizedArray(index);
+            return this.read();
+        }
+        byte type = marker;
+        for (int i = 0; i < index && type != UBMarker.ARRAY_END; i++) {
+            this.skipValue(type);
+            type = this.read();
+        }
+        return type != UBMarker.ARRAY_END ? type : 0;
+    }
+
+    /**
+     * Advances to the first member with the given key in the current object.
+     *
+     * @param key The key of the member.
+     * @return The member's type, or 0 if not found.
+     * @throws IOException If the input is malformed or cannot be read.
+     */
+    protected byte seekKey(final String key) throws IOException {
+        final byte[] expected = key.getBytes(StandardCharsets.UTF_8);
+        final byte marker = this.read();
+        if (marker == UBMarker.OPTIMIZED_TYPE) {
+            final byte type = this.read();
+            if (this.read() != UBMarker.OPTIMIZED_SIZE) {
+                throw new IOException("Missing size marker");
+            }
+            final int width = this.getFixedSize(type);
+            final int size = this.readContainerSize(2 + (width >= 0 ? width : 1));
+            for (int i = 0; i < size; i++) {
+                if (this.matchKey(expected, this.read())) {
+                    return type;
+                }
+                this.skipValue(type);
+            }
+            return 0;
+        } else if (marker == UBMarker.OPTIMIZED_SIZE) {
+            final int size = this.readContainerSize(3);
+            for (int i = 0; i < size; i++) {
+                if (this.matchKey(expected, this.read())) {
+                    return this.read();
+                }
+                this.skipValue(this.read());
+            }
+            return 0;
+        }
+        byte sizeType = marker;
+        while (sizeType != UBMarker.OBJ_END) {
+            if (this.matchKey(expected, sizeType)) {
+                return this.read();
+            }
+            this.skipValue(this.read());
+            sizeType = this.read();
+        }
+        return 0;
+    }
+
+    /**
+     * Consumes a key, comparing its bytes in place wherever they fit in
+     * the buffer.
+     *
+     * @param expected The encoded key being searched for.
+     * @param sizeType The marker of the key's size.
+     * @return <code>true</code>, if the key matches.
+     * @throws IOException If the input is malformed or cannot be read.
+     */
+    protected boolean matchKey(final byte[] expected, final byte sizeType) throws IOException {
+        final int size = this.readStringSize(sizeType);
+        if (size != expected.length) {
+            this.skip(size);
+            return false;
+        } else if (size <= this.buffer.capacity()) {
+            this.require(size);
+            final ByteBuffer buffer = this.buffer;
+            final int position = buffer.position();
+            buffer.position(position + size);
+            for (int i = 0; i < size; i++) {
+                if (buffer.get(position + i) != expected[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        byte[] bytes = this.keyBuffer;
+        if (bytes == null || bytes.length < size) {
+            this.keyBuffer = bytes = new byte[size];
+        }
+        this.readFully(bytes, 0, size);
+        return Arrays.equals(expected, 0, size, bytes, 0, size);
+    }
+
     protected byte read() throws IOException {
-        final int value = this.input.read();
-        if (value == -1) {
+        if (!this.buffer.hasRemaining()) {
+            this.require(1);
+        }
+        return this.buffer.get();
+    }
+
+    protected byte peek() throws IOException {
+        this.require(1);
+        return this.buffer.get(this.buffer.position());
+    }
+
+    protected boolean isEndOfInput() throws IOException {
+        return !this.buffer.hasRemaining() && !this.fill(1);
+    }
+
+    protected void require(final int size) throws IOException {
+        if (this.buffer.remaining() < size && !this.fill(size)) {
+            throw new IOException("Unexpected end of input");
+        }
+    }
+
+    /**
+     * Refills the buffer from the input until at least <code>size</code>
+     * bytes are available, preserving any bytes not yet consumed.
+     *
+     * @param size The minimum number of bytes needed, up to the capacity.
+     * @return <code>false</code>, if the input ended before then.
+     * @throws IOException If the input throws an exception.
+     */
+    protected boolean fill(final int size) throws IOException {
+        if (this.channel != null) {
+            final long offset = this.mappingOffset + this.buffer.position();
+            if (this.channel.size() - offset < size) {
+                return false;
+            }
+            this.buffer = this.map(offset, size);
+            this.mappingOffset = offset;
+            return true;
+        } else if (this.input == null) {
+            return false;
+        }
+        this.checkTotal(size);
+        final ByteBuffer buffer = this.buffer.compact();
+        final byte[] array = buffer.array();
+        while (buffer.position() < size) {
+            final int bytesRead =
+                this.input.read(array, buffer.position(), buffer.remaining());
+            if (bytesRead < 0) {
+                break;
+            }
+            buffer.position(buffer.position() + bytesRead);
+            this.consumed += bytesRead;
+        }
+        buffer.flip();
+        return buffer.remaining() >= size;
+    }
+
+    protected ByteBuffer map(final long offset, final int minSize) throws IOException {
+        final long size = Math.min(this.channel.size() - offset, Math.max(minSize, MAX_MAPPING_SIZE));
+        return this.channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    }
+
+    /**
+     * Gets the offset of the next byte within the source, which is only
+     * meaningful relative to other offsets from the same source.
+     *
+     * @return The number of bytes consumed so far.
+     */
+    protected long position() {
+        if (this.channel != null) {
+            return this.mappingOffset + this.buffer.position();
+        } else if (this.input != null) {
+            return this.consumed - this.buffer.remaining();
+        }
+        return this.buffer.position();
+    }
+
+    protected void checkTotal(final long size) throws IOException {
+        if (this.position() - this.start + size > this.limits.maxTotalBytes()) {
+            throw new IOException("Value exceeds limit of " + this.limits.maxTotalBytes() + " bytes");
+        }
+    }
+
+    /**
+     * Verifies that the next <code>size</code> bytes may be read without
+     * exceeding the limits, and are present when the length of the input
+     * is known. This is checked before allocating anything to hold them.
+     *
+     * @param size The number of bytes about to be read.
+     * @throws IOException If the bytes may not or cannot be read.
+     */
+    protected void checkLength(final long size) throws IOException {
+        this.checkTotal(size);
+        final long available;
+        if (this.channel != null) {
+            available = this.channel.size() - this.position();
+        } else if (this.input == null) {
+            available = this.buffer.remaining();
+        } else {
+            return;
+        }
+        if (available < size) {
+            throw new IOException("Unexpected end of input");
+        }
+    }
+
+    protected void checkContainerSize(final int size) throws IOException {
+        if (size > this.limits.maxContainerSize()) {
+            throw new IOException("Container exceeds limit of " + this.limits.maxContainerSize() + " elements");
+        }
+        // bounds input in memory, which is never refilled
+        this.checkTotal(0);
+    }
+
+    /**
+     * Reads the size of a container, verifying that its elements may be
+     * read before any storage is allocated for them.
+     *
+     * @param minWidth The smallest possible size of each element in bytes.
+     * @return The number of elements in the container.
+     * @throws IOException If the size is malformed or exceeds the limits.
+     */
+    protected int readContainerSize(final int minWidth) throws IOException {
+        final int size = this.readSize();
+        this.checkContainerSize(size);
+        this.checkLength((long) size * minWidth);
+        return size;
+    }
+
+    /**
+     * Gets a safe initial capacity for a container which claims to hold
+     * <code>size</code> elements. When the length of the input is
+     * unknown, the container must grow as its elements are read.
+     *
+     * @param size The number of elements in the container.
+     * @return The number of elements to allocate up front.
+     */
+    protected int initialCapacity(final int size) {
+        if (this.input != null) {
+            return Math.min(size, MAX_PRESIZE);
+        }
+        return Math.min(size, Math.max(this.buffer.remaining(), MAX_PRESIZE));
+    }
+
+    protected void enterContainer() throws IOException {
+        if (this.depth >= this.limits.maxDepth()) {
+            throw new IOException("Exceeded max depth of " + this.limits.maxDepth());
+        }
+        this.checkTotal(0);
+        this.depth++;
+    }
+
+    protected void readFully(final byte[] bytes, int offset, int length) throws IOException {
+        final ByteBuffer buffer = this.buffer;
+        final int buffered = Math.min(buffer.remaining(), length);
+        buffer.get(bytes, offset, buffered);
+        offset += buffered;
+        length -= buffered;
+
+        if (length > 0 && this.input != null) {
+            // large reads bypass the buffer entirely
+            while (length >= buffer.capacity()) {
+                final int bytesRead = this.input.read(bytes, offset, length);
+                if (bytesRead < 0) {
+                    throw new IOException("Unexpected end of input");
+                }
+                offset += bytesRead;
+                length -= bytesRead;
+                this.consumed += bytesRead;
+            }
+        }
+        if (length > 0) {
+            this.require(length);
+            this.buffer.get(bytes, offset, length);
+        }
+    }
+
+    protected void skip(long size) throws IOException {
+        final ByteBuffer buffer = this.buffer;
+        final int buffered = (int) Math.min(buffer.remaining(), size);
+        buffer.position(buffer.position() + buffered);
+        size -= buffered;
+        if (size == 0) {
+            return;
+        }
+        if (this.channel != null) {
+            final long offset = this.mappingOffset + buffer.position() + size;
+            if (offset > this.channel.size()) {
+                throw new IOException("Unexpected end of input");
+            }
+            this.buffer = this.map(offset, 0);
+            this.mappingOffset = offset;
+        } else if (this.input != null) {
+            while (size > 0) {
+                long skipped = this.input.skip(size);
+                if (skipped <= 0) {
+                    if (this.input.read() < 0) {
+                        throw new IOException("Unexpected end of input");
+                    }
+                    skipped = 1;
+                }
+                size -= skipped;
+                this.consumed += skipped;
+            }
+        } else {
             throw new IOException("Unexpected end of input");
         }
-        return (byte) value;
     }
 
     protected long readInt() throws IOException {
@@ -54,30 +978,35 @@ public class UbjsonParser implements ValueParser {
         };
     }
 
+    protected int readSize() throws IOException {
+        return this.readSize(this.read());
+    }
+
+    protected int readSize(final byte type) throws IOException {
+        final long size = this.readInt(type);
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new IOException("Illegal size: " + size);
+        }
+        return (int) size;
+    }
+
     protected short readUInt8() throws IOException {
         return (short) (this.read() & 0xFF);
     }
 
     protected short readInt16() throws IOException {
-        return (short) ((this.read() & 255) << 8 | this.read() & 255);
+        this.require(Short.BYTES);
+        return this.buffer.getShort();
     }
 
     protected int readInt32() throws IOException {
-        return (this.read() & 255) << 24
-            | (this.read() & 255) << 16
-            | (this.read() & 255) << 8
-            | this.read() & 255;
+        this.require(Integer.BYTES);
+        return this.buffer.getInt();
     }
 
     protected long readInt64() throws IOException {
-        return ((long) this.read() & 255) << 56
-            | ((long) this.read() & 255) << 48
-            | ((long) this.read() & 255) << 40
-            | ((long) this.read() & 255) << 32
-            | ((long) this.read() & 255) << 24
-            | ((long) this.read() & 255) << 16
-            | ((long) this.read() & 255) << 8
-            | (long) this.read() & 255;
+        this.require(Long.BYTES);
+        return this.buffer.getLong();
     }
 
     protected float readFloat32() throws IOException {
@@ -93,66 +1022,299 @@ public class UbjsonParser implements ValueParser {
     }
 
     protected String readString(final byte sizeType) throws IOException {
-        final int size = (int) this.readInt(sizeType);
-        final byte[] bytes = new byte[size];
-        int bytesLeft = size;
-        int offset = 0;
+        return this.decodeString(this.readStringSize(sizeType));
+    }
 
-        while (bytesLeft > 0) {
-            final int bytesRead = this.input.read(bytes, offset, size);
-            if (bytesRead < 0) {
-                throw new IOException("Unexpected end of input");
-            }
-            bytesLeft -= bytesRead;
-            offset += bytesRead;
+    protected String decodeString(final int size) throws IOException {
+        final ByteBuffer buffer = this.buffer;
+        if (buffer.hasArray() && buffer.remaining() >= size) {
+            final int position = buffer.position();
+            buffer.position(position + size);
+            return decode(buffer.array(), buffer.arrayOffset() + position, size);
+        } else if (size > DEFAULT_BUFFER_SIZE) {
+            return this.readLargeString(size);
+        }
+        byte[] bytes = this.keyBuffer;
+        if (bytes == null || bytes.length < size) {
+            this.keyBuffer = bytes = new byte[Math.max(size, 64)];
+        }
+        this.readFully(bytes, 0, size);
+        return decode(bytes, 0, size);
+    }
+
+    /**
+     * Decodes a UTF-8 string. The JDK decoder already has a fast path for
+     * ASCII input, which produces a compact Latin-1 string directly.
+     *
+     * @param bytes  The array containing the string.
+     * @param offset The index of the first byte.
+     * @param length The length of the string in bytes.
+     * @return The decoded string.
+     */
+    protected static String decode(final byte[] bytes, final int offset, final int length) {
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    protected int readStringSize(final byte sizeType) throws IOException {
+        final int size = this.readSize(sizeType);
+        if (size > this.limits.maxStringBytes()) {
+            throw new IOException("String exceeds limit of " + this.limits.maxStringBytes() + " bytes");
+        }
+        this.checkLength(size);
+        return size;
+    }
+
+    /**
+     * Decodes a string too large to buffer in one piece, one chunk at a
+     * time. Its storage only grows as its bytes are actually read, so a
+     * corrupt length cannot allocate more than the input contains.
+     *
+     * @param size The length of the string in bytes.
+     * @return The decoded string.
+     * @throws IOException If the input ends or cannot be read.
+     */
+    protected String readLargeString(int size) throws IOException {
+        CharsetDecoder decoder = this.decoder;
+        if (decoder == null) {
+            this.decoder = decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.chars = CharBuffer.allocate(DEFAULT_BUFFER_SIZE);
         }
-        return new String(bytes, StandardCharsets.UTF_8);
+        decoder.reset();
+        final CharBuffer chars = this.chars;
+        final StringBuilder sb = new StringBuilder(DEFAULT_BUFFER_SIZE);
+        while (size > 0) {
+            this.require(Math.min(size, this.buffer.capacity()));
+            final ByteBuffer buffer = this.buffer;
+            final int limit = buffer.limit();
+            final int position = buffer.position();
+            final int available = Math.min(buffer.remaining(), size);
+            buffer.limit(position + available);
+            decoder.decode(buffer, chars, available == size);
+            buffer.limit(limit);
+            size -= buffer.position() - position;
+            sb.append(chars.flip());
+            chars.clear();
+        }
+        decoder.flush(chars);
+        return sb.append(chars.flip()).toString();
+    }
+
+    protected String readKey() throws IOException {
+        return this.readKey(this.read());
+    }
+
+    protected String readKey(final byte sizeType) throws IOException {
+        final UBKeyCache cache = this.keyCache;
+        if (cache == null) {
+            return this.readString(sizeType);
+        }
+        final int size = this.readStringSize(sizeType);
+        final ByteBuffer buffer = this.buffer;
+        if (buffer.hasArray() && buffer.remaining() >= size) {
+            final int position = buffer.position();
+            buffer.position(position + size);
+            return cache.get(buffer.array(), buffer.arrayOffset() + position, size);
+        }
+        byte[] bytes = this.keyBuffer;
+        if (bytes == null || bytes.length < size) {
+            this.keyBuffer = bytes = new byte[Math.max(size, 64)];
+        }
+        this.readFully(bytes, 0, size);
+        return cache.get(bytes, 0, size);
     }
 
     protected JsonArray readOptimizedArray(final int size, final byte type) throws IOException {
-        final List<JsonReference> array = new ArrayList<>(size);
+        if (this.numberArrays && this.isNumberType(type)) {
+            return this.readNumberArray(size, type);
+        }
+        final List<JsonReference> array = new ArrayList<>(this.initialCapacity(size));
         for (int i = 0; i < size; i++) {
-            array.add(new JsonReference(this.readValue(type)));
+            array.add(this.readReference(type));
         }
         return new JsonArray(array);
     }
 
+    protected boolean isNumberType(final byte type) {
+        return switch (type) {
+            case UBMarker.INT8, UBMarker.U_INT8, UBMarker.INT16, UBMarker.INT32,
+                UBMarker.INT64, UBMarker.FLOAT32, UBMarker.FLOAT64 -> true;
+            default -> false;
+        };
+    }
+
+    protected JsonArray readNumberArray(final int size, final byte type) throws IOException {
+        switch (type) {
+            case UBMarker.INT8, UBMarker.U_INT8 -> {
+                byte[] data = new byte[this.initialCapacity(size)];
+                for (int i = 0; i < size; i = data.length) {
+                    if (i == data.length) {
+                        data = Arrays.copyOf(data, grow(i, size));
+                    }
+                    this.readFully(data, i, data.length - i);
+                }
+                return new UBNumberArray(data, type == UBMarker.U_INT8);
+            }
+            case UBMarker.INT16 -> {
+                short[] data = new short[this.initialCapacity(size)];
+                for (int i = 0; i < size; ) {
+                    if (i == data.length) {
+                        data = Arrays.copyOf(data, grow(i, size));
+                    }
+                    final int n = Math.min(data.length - i, this.buffer.remaining() / Short.BYTES);
+                    if (n == 0) {
+                        data[i++] = this.readInt16();
+                        continue;
+                    }
+                    this.buffer.asShortBuffer().get(data, i, n);
+                    this.skip((long) n * Short.BYTES);
+                    i += n;
+                }
+                return new UBNumberArray(data);
+            }
+            case UBMarker.INT32 -> {
+                int[] data = new int[this.initialCapacity(size)];
+                for (int i = 0; i < size; ) {
+                    if (i == data.length) {
+                        data = Arrays.copyOf(data, grow(i, size));
+                    }
+                    final int n = Math.min(data.length - i, this.buffer.remaining() / Integer.BYTES);
+                    if (n == 0) {
+                        data[i++] = this.readInt32();
+                        continue;
+                    }
+                    this.buffer.asIntBuffer().get(data, i, n);
+                    this.skip((long) n * Integer.BYTES);
+                    i += n;
+                }
+                return new UBNumberArray(data);
+            }
+            case UBMarker.INT64 -> {
+                long[] data = new long[this.initialCapacity(size)];
+                for (int i = 0; i < size; ) {
+                    if (i == data.length) {
+                        data = Arrays.copyOf(data, grow(i, size));
+                    }
+                    final int n = Math.min(data.length - i, this.buffer.remaining() / Long.BYTES);
+                    if (n == 0) {
+                        data[i++] = this.readInt64();
+                        continue;
+                    }
+                    this.buffer.asLongBuffer().get(data, i, n);
+                    this.skip((long) n * Long.BYTES);
+                    i += n;
+                }
+                return new UBNumberArray(data);
+            }
+            case UBMarker.FLOAT32 -> {
+                float[] data = new float[this.initialCapacity(size)];
+                for (int i = 0; i < size; ) {
+                    if (i == data.length) {
+                        data = Arrays.copyOf(data, grow(i, size));
+                    }
+                    final int n = Math.min(data.length - i, this.buffer.remaining() / Float.BYTES);
+                    if (n == 0) {
+                        data[i++] = this.readFloat32();
+                        continue;
+                    }
+                    this.buffer.asFloatBuffer().get(data, i, n);
+                    this.skip((long) n * Float.BYTES);
+                    i += n;
+                }
+                return new UBNumberArray(data);
+            }
+            case UBMarker.FLOAT64 -> {
+                double[] data = new double[this.initialCapacity(size)];
+                for (int i = 0; i < size; ) {
+                    if (i == data.length) {
+                        data = Arrays.copyOf(data, grow(i, size));
+                    }
+                    final int n = Math.min(data.length - i, this.buffer.remaining() / Double.BYTES);
+                    if (n == 0) {
+                        data[i++] = this.readFloat64();
+                        continue;
+                    }
+                    this.buffer.asDoubleBuffer().get(data, i, n);
+                    this.skip((long) n * Double.BYTES);
+                    i += n;
+                }
+                return new UBNumberArray(data);
+            }
+        }
+        throw new IOException("Not a number type: " + (char) type);
+    }
+
+    protected static int grow(final int length, final int size) {
+        return (int) Math.min(size, Math.max(length * 2L, MAX_PRESIZE));
+    }
+
     protected JsonArray readSizedArray(final int size) throws IOException {
-        final List<JsonReference> array = new ArrayList<>(size);
+        final List<JsonReference> array = new ArrayList<>(this.initialCapacity(size));
         for (int i = 0; i < size; i++) {
-            array.add(new JsonReference(this.readValue(this.read())));
+            array.add(this.readReference(this.read()));
         }
         return new JsonArray(array);
     }
 
     protected JsonArray readGenericArray(byte type) throws IOException {
-        final JsonArray array = new JsonArray();
-        while (type != UBMarker.ARRAY_END) {
-            array.add(this.readValue(type));
-            type = this.read();
+        final List<JsonReference> scratch = this.borrowScratch();
+        try {
+            while (type != UBMarker.ARRAY_END) {
+                this.checkContainerSize(scratch.size() + 1);
+                scratch.add(this.readReference(type));
+                type = this.read();
+            }
+            return new JsonArray(new ArrayList<>(scratch));
+        } finally {
+            this.releaseScratch(scratch);
         }
-        return array;
+    }
+
+    /**
+     * Gets a reusable list for collecting the elements of an unsized
+     * array, so that its final list can be allocated exactly once.
+     * One list is kept for each level of nesting.
+     *
+     * @return An empty list, which must be released after use.
+     */
+    protected List<JsonReference> borrowScratch() {
+        if (this.scratchDepth == this.scratch.size()) {
+            this.scratch.add(new ArrayList<>());
+        }
+        return this.scratch.get(this.scratchDepth++);
+    }
+
+    protected void releaseScratch(final List<JsonReference> scratch) {
+        scratch.clear();
+        this.scratchDepth--;
     }
 
     protected JsonArray readArray() throws IOException {
-        final byte marker = this.read();
-        if (marker == UBMarker.OPTIMIZED_TYPE) {
-            final byte type = this.read();
-            if (this.read() != UBMarker.OPTIMIZED_SIZE) {
-                throw new IOException("Missing size marker");
+        this.enterContainer();
+        try {
+            final byte marker = this.read();
+            if (marker == UBMarker.OPTIMIZED_TYPE) {
+                final byte type = this.read();
+                if (this.read() != UBMarker.OPTIMIZED_SIZE) {
+                    throw new IOException("Missing size marker");
+                }
+                final int width = this.getFixedSize(type);
+                return this.readOptimizedArray(this.readContainerSize(width >= 0 ? width : 1), type);
+            } else if (marker == UBMarker.OPTIMIZED_SIZE) {
+                return this.readSizedArray(this.readContainerSize(1));
             }
-            return this.readOptimizedArray((int) this.readInt(), type);
-        } else if (marker == UBMarker.OPTIMIZED_SIZE) {
-            return this.readSizedArray((int) this.readInt());
+            return this.readGenericArray(marker);
+        } finally {
+            this.depth--;
         }
-        return this.readGenericArray(marker);
     }
 
     protected JsonObject readOptimizedObject(final int size, final byte type) throws IOException {
-        // Todo: JsonObject does not support sized construction.
+        // JsonObject cannot be presized, so members are added one at a time
         final JsonObject object = new JsonObject();
         for (int i = 0; i < size; i++) {
-            object.add(this.readString(), this.readValue(type));
+            object.addReference(this.readKey(), this.readReference(type));
         }
         return object;
     }
@@ -160,7 +1322,7 @@ public class UbjsonParser implements ValueParser {
     protected JsonObject readSizedObject(final int size) throws IOException {
         final JsonObject object = new JsonObject();
         for (int i = 0; i < size; i++) {
-            object.add(this.readString(), this.readValue(this.read()));
+            object.addReference(this.readKey(), this.readReference(this.read()));
         }
         return object;
     }
@@ -168,27 +1330,232 @@ public class UbjsonParser implements ValueParser {
     protected JsonObject readGenericObject(byte type) throws IOException {
         final JsonObject object = new JsonObject();
         while (type != UBMarker.OBJ_END) {
-            object.add(this.readString(type), this.readValue());
+            this.checkContainerSize(object.size() + 1);
+            object.addReference(this.readKey(type), this.readReference(this.read()));
             type = this.read();
         }
         return object;
     }
 
     protected JsonObject readObject() throws IOException {
-        final byte marker = this.read();
-        if (marker == UBMarker.OPTIMIZED_TYPE) {
-            final byte type = this.read();
-            if (this.read() != UBMarker.OPTIMIZED_SIZE) {
-                throw new IOException("Missing size marker");
+        this.enterContainer();
+        try {
+            final byte marker = this.read();
+            if (marker == UBMarker.OPTIMIZED_TYPE) {
+                final byte type = this.read();
+                if (this.read() != UBMarker.OPTIMIZED_SIZE) {
+                    throw new IOException("Missing size marker");
+                }
+                // each key needs at least a size marker and a size
+                final int width = this.getFixedSize(type);
+                return this.readOptimizedObject(this.readContainerSize(2 + (width >= 0 ? width : 1)), type);
+            } else if (marker == UBMarker.OPTIMIZED_SIZE) {
+                return this.readSizedObject(this.readContainerSize(3));
             }
-            return this.readOptimizedObject((int) this.readInt(), type);
-        } else if (marker == UBMarker.OPTIMIZED_SIZE) {
-            return this.readSizedObject((int) this.readInt());
+            return this.readGenericObject(marker);
+        } finally {
+            this.depth--;
+        }
+    }
+
+    protected <T> T readRecord(final UBCodec<T> codec) throws IOException {
+        this.enterContainer();
+        try {
+            final Object[] values = new Object[codec.size()];
+            final byte marker = this.read();
+            if (marker == UBMarker.OPTIMIZED_TYPE) {
+                final byte type = this.read();
+                if (this.read() != UBMarker.OPTIMIZED_SIZE) {
+                    throw new IOException("Missing size marker");
+                }
+                final int size = this.readContainerSize(2);
+                for (int i = 0; i < size; i++) {
+                    this.readMember(codec, values, this.readKey(), type);
+                }
+            } else if (marker == UBMarker.OPTIMIZED_SIZE) {
+                final int size = this.readContainerSize(3);
+                for (int i = 0; i < size; i++) {
+                    this.readMember(codec, values, this.readKey(), this.read());
+                }
+            } else {
+                byte sizeType = marker;
+                for (int i = 1; sizeType != UBMarker.OBJ_END; i++) {
+                    this.checkContainerSize(i);
+                    this.readMember(codec, values, this.readKey(sizeType), this.read());
+                    sizeType = this.read();
+                }
+            }
+            return codec.create(values);
+        } finally {
+            this.depth--;
+        }
+    }
+
+    protected void readMember(
+            final UBCodec<?> codec, final Object[] values, final String key, final byte type) throws IOException {
+        final int index = codec.indexOf(key);
+        if (index < 0) {
+            this.skipValue(type);
+            return;
+        }
+        values[index] = this.readTyped(type, codec.getType(index), codec.getElementType(index));
+    }
+
+    /**
+     * Decodes a single value directly into the given type.
+     *
+     * @param type        The marker of the value.
+     * @param target      The type of object to produce.
+     * @param elementType The type of each element, if the target is a
+     *                    collection or array.
+     * @return The decoded object, or <code>null</code>.
+     * @throws IOException If the value cannot be converted to this type.
+     */
+    protected Object readTyped(final byte type, final Class<?> target, final Class<?> elementType) throws IOException {
+        if (type == UBMarker.NULL) {
+            return null;
+        } else if (target == String.class) {
+            if (type == UBMarker.CHAR) {
+                return String.valueOf((char) this.read());
+            } else if (type == UBMarker.STRING) {
+                return this.readString();
+            }
+        } else if (target == boolean.class || target == Boolean.class) {
+            if (type == UBMarker.TRUE || type == UBMarker.FALSE) {
+                return type == UBMarker.TRUE;
+            }
+        } else if (this.isNumberType(type) && (target.isPrimitive() || Number.class.isAssignableFrom(target))) {
+            if (type == UBMarker.FLOAT32 || type == UBMarker.FLOAT64) {
+                return toNumber(target, type == UBMarker.FLOAT32 ? this.readFloat32() : this.readFloat64());
+            }
+            return toNumber(target, this.readInt(type));
+        } else if (target == char.class || target == Character.class) {
+            if (type == UBMarker.CHAR) {
+                return (char) this.read();
+            } else if (type == UBMarker.STRING) {
+                final String s = this.readString();
+                if (s.length() == 1) {
+                    return s.charAt(0);
+                }
+            }
+        } else if (target.isEnum()) {
+            if (type == UBMarker.STRING) {
+                return toEnum(target, this.readString());
+            }
+        } else if (target == Object.class || JsonValue.class.isAssignableFrom(target)) {
+            return this.readValue(type);
+        } else if (type == UBMarker.ARRAY_START) {
+            if (target.isArray()) {
+                final List<Object> list = this.readList(target.getComponentType());
+                final Object array = Array.newInstance(target.getComponentType(), list.size());
+                for (int i = 0; i < list.size(); i++) {
+                    Array.set(array, i, list.get(i));
+                }
+                return array;
+            } else if (target.isAssignableFrom(ArrayList.class) && Collection.class.isAssignableFrom(target)) {
+                return this.readList(elementType);
+            }
+        } else if (type == UBMarker.OBJ_START && UBCodec.isBindable(target)) {
+            return this.readRecord(UBCodec.of(target));
+        }
+        throw new IOException("Cannot read " + (char) type + " as " + target.getName());
+    }
+
+    protected List<Object> readList(final Class<?> elementType) throws IOException {
+        this.enterContainer();
+        try {
+            final Class<?> nested = UBCodec.getElementType(elementType);
+            final byte marker = this.read();
+            if (marker == UBMarker.OPTIMIZED_TYPE) {
+                final byte type = this.read();
+                if (this.read() != UBMarker.OPTIMIZED_SIZE) {
+                    throw new IOException("Missing size marker");
+                }
+                final int width = this.getFixedSize(type);
+                final int size = this.readContainerSize(width >= 0 ? width : 1);
+                final List<Object> list = new ArrayList<>(this.initialCapacity(size));
+                for (int i = 0; i < size; i++) {
+                    list.add(this.readTyped(type, elementType, nested));
+                }
+                return list;
+            } else if (marker == UBMarker.OPTIMIZED_SIZE) {
+                final int size = this.readContainerSize(1);
+                final List<Object> list = new ArrayList<>(this.initialCapacity(size));
+                for (int i = 0; i < size; i++) {
+                    list.add(this.readTyped(this.read(), elementType, nested));
+                }
+                return list;
+            }
+            final List<Object> list = new ArrayList<>();
+            byte type = marker;
+            while (type != UBMarker.ARRAY_END) {
+                this.checkContainerSize(list.size() + 1);
+                list.add(this.readTyped(type, elementType, nested));
+                type = this.read();
+            }
+            return list;
+        } finally {
+            this.depth--;
         }
-        return this.readGenericObject(marker);
+    }
+
+    protected static Object toNumber(final Class<?> target, final double value) throws IOException {
+        if (target == int.class || target == Integer.class || target == long.class || target == Long.class
+                || target == short.class || target == Short.class || target == byte.class || target == Byte.class) {
+            if (value != Math.rint(value) || value < -0x1p63 || value >= 0x1p63) {
+                throw new IOException("Cannot convert " + value + " to " + target.getName());
+            }
+            return toNumber(target, (long) value);
+        } else if (target == float.class || target == Float.class) {
+            final float f = (float) value;
+            if (Float.isInfinite(f) && !Double.isInfinite(value)) {
+                throw new IOException("Cannot convert " + value + " to " + target.getName());
+            }
+            return f;
+        }
+        return value;
+    }
+
+    protected static Object toNumber(final Class<?> target, final long value) throws IOException {
+        if (target == int.class || target == Integer.class) {
+            if (value != (int) value) {
+                throw new IOException("Cannot convert " + value + " to " + target.getName());
+            }
+            return (int) value;
+        } else if (target == short.class || target == Short.class) {
+            if (value != (short) value) {
+                throw new IOException("Cannot convert " + value + " to " + target.getName());
+            }
+            return (short) value;
+        } else if (target == byte.class || target == Byte.class) {
+            if (value != (byte) value) {
+                throw new IOException("Cannot convert " + value + " to " + target.getName());
+            }
+            return (byte) value;
+        } else if (target == float.class || target == Float.class) {
+            return (float) value;
+        } else if (target == double.class || target == Double.class) {
+            return (double) value;
+        }
+        return value;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object toEnum(final Class<?> target, final String name) throws IOException {
+        try {
+            return Enum.valueOf((Class) target, name);
+        } catch (final IllegalArgumentException e) {
+            throw new IOException("No constant " + name + " in " + target.getName());
+        }
+    }
+
+    protected JsonReference readReference(final byte type) throws IOException {
+        return new JsonReference(this.readValue(type));
     }
 
     protected JsonValue readValue() throws IOException {
+        this.start = this.position();
+        this.depth = 0;
         return this.readValue(this.read());
     }
 
@@ -206,14 +1573,341 @@ public class UbjsonParser implements ValueParser {
             case UBMarker.FLOAT32: return Json.value(this.readFloat32());
             case UBMarker.FLOAT64: return Json.value(this.readFloat64());
             case UBMarker.STRING: return Json.value(this.readString());
-            case UBMarker.ARRAY_START: return this.readArray();
-            case UBMarker.OBJ_START: return this.readObject();
+            case UBMarker.ARRAY_START: return this.iterative ? this.readTree(type) : this.readArray();
+            case UBMarker.OBJ_START: return this.iterative ? this.readTree(type) : this.readObject();
         }
         throw new IOException("Unrecognized marker: " + (char) type);
     }
 
+    /**
+     * Reads a container and everything inside of it without recursion,
+     * tracking each level of nesting on an explicit stack. This is used
+     * whenever a subclass does not override any of the container hooks,
+     * and is equivalent to {@link #readArray} and {@link #readObject}.
+     *
+     * @param type The marker of the outermost container.
+     * @return The container which was read.
+     * @throws IOException If the input is malformed or cannot be read.
+     */
+    protected JsonValue readTree(byte type) throws IOException {
+        final int bottom = this.depth;
+        try {
+            while (true) {
+                JsonValue value = null;
+                if (type == UBMarker.ARRAY_START) {
+                    value = this.openArray();
+                } else if (type == UBMarker.OBJ_START) {
+                    this.openObject();
+                } else {
+                    value = this.readValue(type);
+                }
+                while (true) {
+                    final int top = this.depth - 1;
+                    if (value != null) {
+                        if (top < bottom) {
+                            return value;
+                        }
+                        this.append(top, value);
+                        value = null;
+                    }
+                    final byte next = this.nextElement(top);
+                    if (next != 0) {
+                        type = next;
+                        break;
+                    }
+                    value = this.closeContainer(top);
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            while (this.depth > bottom) {
+                if (this.modes[this.depth - 1] == GENERIC_ARRAY) {
+                    this.releaseScratch(this.scratch.get(this.scratchDepth - 1));
+                }
+                this.containers[--this.depth] = null;
+            }
+            throw e;
+        }
+    }
+
+    private JsonValue openArray() throws IOException {
+        final byte marker = this.read();
+        if (marker == UBMarker.OPTIMIZED_TYPE) {
+            final byte type = this.read();
+            if (this.read() != UBMarker.OPTIMIZED_SIZE) {
+                throw new IOException("Missing size marker");
+            }
+            final int width = this.getFixedSize(type);
+            final int size = this.readContainerSize(width >= 0 ? width : 1);
+            if (this.numberArrays && this.isNumberType(type)) {
+                this.enterContainer();
+                this.depth--;
+                return this.readNumberArray(size, type);
+            }
+            this.push(OPTIMIZED_ARRAY, type, size, new ArrayList<>(this.initialCapacity(size)));
+        } else if (marker == UBMarker.OPTIMIZED_SIZE) {
+            final int size = this.readContainerSize(1);
+            this.push(SIZED_ARRAY, (byte) 0, size, new ArrayList<>(this.initialCapacity(size)));
+        } else {
+            this.push(GENERIC_ARRAY, marker, -1, null);
+        }
+        return null;
+    }
+
+    private void openObject() throws IOException {
+        final byte marker = this.read();
+        if (marker == UBMarker.OPTIMIZED_TYPE) {
+            final byte type = this.read();
+            if (this.read() != UBMarker.OPTIMIZED_SIZE) {
+                throw new IOException("Missing size marker");
+            }
+            final int width = this.getFixedSize(type);
+            final int size = this.readContainerSize(2 + (width >= 0 ? width : 1));
+            this.push(OPTIMIZED_OBJECT, type, size, new JsonObject());
+        } else if (marker == UBMarker.OPTIMIZED_SIZE) {
+            this.push(SIZED_OBJECT, (byte) 0, this.readContainerSize(3), new JsonObject());
+        } else {
+            this.push(GENERIC_OBJECT, marker, -1, new JsonObject());
+        }
+    }
+
+    private void push(
+            final byte mode, final byte type, final int size, final Object container) throws IOException {
+        final int top = this.pushFrame(mode, type, size);
+        this.containers[top] = mode == GENERIC_ARRAY ? this.borrowScratch() : container;
+    }
+
+    private int pushFrame(final byte mode, final byte type, final int size) throws IOException {
+        this.enterContainer();
+        final int top = this.depth - 1;
+        if (top >= this.modes.length) {
+            final int capacity = Math.max(top + 1, this.modes.length * 2);
+            this.modes = Arrays.copyOf(this.modes, capacity);
+            this.elementTypes = Arrays.copyOf(this.elementTypes, capacity);
+            this.remaining = Arrays.copyOf(this.remaining, capacity);
+            this.containers = Arrays.copyOf(this.containers, capacity);
+            this.keys = Arrays.copyOf(this.keys, capacity);
+        }
+        this.modes[top] = mode;
+        this.elementTypes[top] = type;
+        this.remaining[top] = size;
+        return top;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void append(final int top, final JsonValue value) {
+        final Object container = this.containers[top];
+        if (container instanceof JsonObject object) {
+            object.addReference(this.keys[top], new JsonReference(value));
+            this.keys[top] = null;
+        } else {
+            ((List<JsonReference>) container).add(new JsonReference(value));
+        }
+    }
+
+    /**
+     * Advances to the next element of the container on top of the stack,
+     * reading its key if the container is an object.
+     *
+     * @param top The index of the container on the stack.
+     * @return The type of the next element, or 0 if there are none left.
+     * @throws IOException If the input is malformed or cannot be read.
+     */
+    private byte nextElement(final int top) throws IOException {
+        switch (this.modes[top]) {
+            case OPTIMIZED_ARRAY:
+                return this.remaining[top]-- > 0 ? this.elementTypes[top] : 0;
+            case SIZED_ARRAY:
+                return this.remaining[top]-- > 0 ? this.read() : 0;
+            case GENERIC_ARRAY: {
+                // the first marker was already read when opening the array
+                byte type = this.elementTypes[top];
+                if (type == 0) {
+                    type = this.read();
+                } else {
+                    this.elementTypes[top] = 0;
+                }
+                if (type == UBMarker.ARRAY_END) {
+                    return 0;
+                }
+                this.checkContainerSize(((List<?>) this.containers[top]).size() + 1);
+                return type;
+            }
+            case OPTIMIZED_OBJECT:
+                if (this.remaining[top]-- <= 0) {
+                    return 0;
+                }
+                this.keys[top] = this.readKey();
+                return this.elementTypes[top];
+            case SIZED_OBJECT:
+                if (this.remaining[top]-- <= 0) {
+                    return 0;
+                }
+                this.keys[top] = this.readKey();
+                return this.read();
+            default: {
+                byte sizeType = this.elementTypes[top];
+                if (sizeType == 0) {
+                    sizeType = this.read();
+                } else {
+                    this.elementTypes[top] = 0;
+                }
+                if (sizeType == UBMarker.OBJ_END) {
+                    return 0;
+                }
+                this.checkContainerSize(((JsonObject) this.containers[top]).size() + 1);
+                this.keys[top] = this.readKey(sizeType);
+                return this.read();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private JsonValue closeContainer(final int top) {
+        final Object container = this.containers[top];
+        this.containers[top] = null;
+        this.depth--;
+        if (container instanceof JsonObject object) {
+            return object;
+        } else if (this.modes[top] == GENERIC_ARRAY) {
+            final List<JsonReference> scratch = (List<JsonReference>) container;
+            final JsonArray array = new JsonArray(new ArrayList<>(scratch));
+            this.releaseScratch(scratch);
+            return array;
+        }
+        return new JsonArray((List<JsonReference>) container);
+    }
+
+    protected void skipValue() throws IOException {
+        this.skipValue(this.read());
+    }
+
+    protected void skipValue(final byte type) throws IOException {
+        final int size = this.getFixedSize(type);
+        if (size >= 0) {
+            this.skip(size);
+            return;
+        }
+        switch (type) {
+            case UBMarker.STRING -> this.skipString(this.read());
+            case UBMarker.ARRAY_START -> this.skipArray();
+            case UBMarker.OBJ_START -> this.skipObject();
+            default -> throw new IOException("Unrecognized marker: " + (char) type);
+        }
+    }
+
+    protected int getFixedSize(final byte type) {
+        return switch (type) {
+            case UBMarker.NULL, UBMarker.TRUE, UBMarker.FALSE -> 0;
+            case UBMarker.CHAR, UBMarker.INT8, UBMarker.U_INT8 -> 1;
+            case UBMarker.INT16 -> 2;
+            case UBMarker.INT32, UBMarker.FLOAT32 -> 4;
+            case UBMarker.INT64, UBMarker.FLOAT64 -> 8;
+            default -> -1;
+        };
+    }
+
+    protected void skipString(final byte sizeType) throws IOException {
+        this.skip(this.readSize(sizeType));
+    }
+
+    protected void skipOptimizedArray(final int size, final byte type) throws IOException {
+        final int width = this.getFixedSize(type);
+        if (width >= 0) {
+            this.skip((long) width * size);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            this.skipValue(type);
+        }
+    }
+
+    protected void skipSizedArray(final int size) throws IOException {
+        for (int i = 0; i < size; i++) {
+            this.skipValue(this.read());
+        }
+    }
+
+    protected void skipGenericArray(byte type) throws IOException {
+        int size = 0;
+        while (type != UBMarker.ARRAY_END) {
+            this.checkContainerSize(++size);
+            this.skipValue(type);
+            type = this.read();
+        }
+    }
+
+    protected void skipArray() throws IOException {
+        this.enterContainer();
+        try {
+            final byte marker = this.read();
+            if (marker == UBMarker.OPTIMIZED_TYPE) {
+                final byte type = this.read();
+                if (this.read() != UBMarker.OPTIMIZED_SIZE) {
+                    throw new IOException("Missing size marker");
+                }
+                final int width = this.getFixedSize(type);
+                this.skipOptimizedArray(this.readContainerSize(width >= 0 ? width : 1), type);
+            } else if (marker == UBMarker.OPTIMIZED_SIZE) {
+                this.skipSizedArray(this.readContainerSize(1));
+            } else {
+                this.skipGenericArray(marker);
+            }
+        } finally {
+            this.depth--;
+        }
+    }
+
+    protected void skipOptimizedObject(final int size, final byte type) throws IOException {
+        for (int i = 0; i < size; i++) {
+            this.skipString(this.read());
+            this.skipValue(type);
+        }
+    }
+
+    protected void skipSizedObject(final int size) throws IOException {
+        for (int i = 0; i < size; i++) {
+            this.skipString(this.read());
+            this.skipValue(this.read());
+        }
+    }
+
+    protected void skipGenericObject(byte type) throws IOException {
+        int size = 0;
+        while (type != UBMarker.OBJ_END) {
+            this.checkContainerSize(++size);
+            this.skipString(type);
+            this.skipValue(this.read());
+            type = this.read();
+        }
+    }
+
+    protected void skipObject() throws IOException {
+        this.enterContainer();
+        try {
+            final byte marker = this.read();
+            if (marker == UBMarker.OPTIMIZED_TYPE) {
+                final byte type = this.read();
+                if (this.read() != UBMarker.OPTIMIZED_SIZE) {
+                    throw new IOException("Missing size marker");
+                }
+                final int width = this.getFixedSize(type);
+                this.skipOptimizedObject(this.readContainerSize(2 + (width >= 0 ? width : 1)), type);
+            } else if (marker == UBMarker.OPTIMIZED_SIZE) {
+                this.skipSizedObject(this.readContainerSize(3));
+            } else {
+                this.skipGenericObject(marker);
+            }
+        } finally {
+            this.depth--;
+        }
+    }
+
     @Override
     public void close() throws IOException {
-        this.input.close();
+        if (this.input != null) {
+            this.input.close();
+        } else if (this.channel != null) {
+            this.channel.close();
+        }
     }
 }
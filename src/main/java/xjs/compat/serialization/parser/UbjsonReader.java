@@ -0,0 +1,387 @@
+package xjs.compat.serialization.parser;
+
+import xjs.compat.serialization.util.UBEvent;
+import xjs.compat.serialization.util.UBMarker;
+import xjs.data.JsonValue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A pull-style reader exposing UBJSON data as a sequence of {@link
+ * UBEvent events}. Values are only decoded when requested, and are
+ * otherwise skipped, which allows arbitrarily large documents to be
+ * processed in constant memory.
+ *
+ * <p>For example, to sum every number in a large array:
+ *
+ * <pre>{@code
+ *   reader.nextEvent(); // START_ARRAY
+ *   while (reader.nextEvent() != UBEvent.END_ARRAY) {
+ *       sum += reader.readDouble();
+ *   }
+ * }</pre>
+ */
+public class UbjsonReader implements Closeable {
+    protected final UbjsonParser parser;
+
+    // container markers, fixed types, and remaining counts (-1 if unsized)
+    protected byte[] containers = new byte[16];
+    protected byte[] types = new byte[16];
+    protected int[] counts = new int[16];
+    protected int depth;
+
+    protected UBEvent event;
+    protected byte current;
+    protected boolean pending;
+    protected boolean valueNext;
+
+    public UbjsonReader(final InputStream input) {
+        this(new UbjsonParser(input));
+    }
+
+    public UbjsonReader(final byte[] bytes) {
+        this(new UbjsonParser(bytes));
+    }
+
+    public UbjsonReader(final FileChannel channel) throws IOException {
+        this(new UbjsonParser(channel));
+    }
+
+    public UbjsonReader(final UbjsonParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Advances to the next event in the stream. Any value which was not
+     * read by the caller will be skipped.
+     *
+     * @return The next event, or {@link UBEvent#END_DOCUMENT} at the end.
+     * @throws IOException If the input is malformed or cannot be read.
+     */
+    public UBEvent nextEvent() throws IOException {
+        if (this.pending) {
+            this.skipPending();
+        }
+        if (this.depth == 0) {
+            if (this.parser.isEndOfInput()) {
+                this.current = 0;
+                return this.event = UBEvent.END_DOCUMENT;
+            }
+            // limits apply to each top-level value
+            this.parser.start = this.parser.position();
+            this.parser.depth = 0;
+            return this.begin(this.parser.read());
+        } else if (this.containers[this.depth] == UBMarker.OBJ_START) {
+            return this.valueNext ? this.nextMemberValue() : this.nextKey();
+        }
+        return this.nextElement();
+    }
+
+    protected UBEvent nextKey() throws IOException {
+        final int d = this.depth;
+        if (this.counts[d] == 0) {
+            return this.end(UBEvent.END_OBJECT);
+        }
+        final byte sizeType = this.parser.read();
+        if (this.counts[d] > 0) {
+            this.counts[d]--;
+        } else if (sizeType == UBMarker.OBJ_END) {
+            return this.end(UBEvent.END_OBJECT);
+        }
+        this.valueNext = true;
+        this.pending = true;
+        this.current = sizeType;
+        return this.event = UBEvent.KEY;
+    }
+
+    protected UBEvent nextMemberValue() throws IOException {
+        final byte type = this.types[this.depth];
+        this.valueNext = false;
+        return this.begin(type != 0 ? type : this.parser.read());
+    }
+
+    protected UBEvent nextElement() throws IOException {
+        final int d = this.depth;
+        if (this.counts[d] == 0) {
+            return this.end(UBEvent.END_ARRAY);
+        } else if (this.counts[d] > 0) {
+            this.counts[d]--;
+            final byte type = this.types[d];
+            return this.begin(type != 0 ? type : this.parser.read());
+        }
+        final byte type = this.parser.read();
+        if (type == UBMarker.ARRAY_END) {
+            return this.end(UBEvent.END_ARRAY);
+        }
+        return this.begin(type);
+    }
+
+    protected UBEvent begin(final byte type) throws IOException {
+        this.current = type;
+        switch (type) {
+            case UBMarker.ARRAY_START:
+                this.push(type);
+                return this.event = UBEvent.START_ARRAY;
+            case UBMarker.OBJ_START:
+                this.push(type);
+                return this.event = UBEvent.START_OBJECT;
+            case UBMarker.NULL:
+                return this.event = UBEvent.NULL;
+            case UBMarker.TRUE:
+            case UBMarker.FALSE:
+                return this.event = UBEvent.BOOLEAN;
+            case UBMarker.CHAR:
+            case UBMarker.INT8:
+            case UBMarker.U_INT8:
+            case UBMarker.INT16:
+            case UBMarker.INT32:
+            case UBMarker.INT64:
+                this.pending = true;
+                return this.event = UBEvent.INTEGER;
+            case UBMarker.FLOAT32:
+            case UBMarker.FLOAT64:
+                this.pending = true;
+                return this.event = UBEvent.FLOAT;
+            case UBMarker.STRING:
+                this.pending = true;
+                return this.event = UBEvent.STRING;
+        }
+        throw new IOException("Unrecognized marker: " + (char) type);
+    }
+
+    protected UBEvent end(final UBEvent event) {
+        this.pop();
+        this.current = 0;
+        return this.event = event;
+    }
+
+    protected void push(final byte container) throws IOException {
+        final UbjsonParser parser = this.parser;
+        parser.enterContainer();
+        final int d = ++this.depth;
+        if (d == this.containers.length) {
+            this.containers = Arrays.copyOf(this.containers, d * 2);
+            this.types = Arrays.copyOf(this.types, d * 2);
+            this.counts = Arrays.copyOf(this.counts, d * 2);
+        }
+        // objects need at least a size marker and a size for each key
+        final int keyWidth = container == UBMarker.OBJ_START ? 2 : 0;
+        byte type = 0;
+        int count = -1;
+        final byte marker = parser.peek();
+        if (marker == UBMarker.OPTIMIZED_TYPE) {
+            parser.read();
+            type = parser.read();
+            if (parser.read() != UBMarker.OPTIMIZED_SIZE) {
+                throw new IOException("Missing size marker");
+            }
+            final int width = parser.getFixedSize(type);
+            count = parser.readContainerSize(keyWidth + (width >= 0 ? width : 1));
+        } else if (marker == UBMarker.OPTIMIZED_SIZE) {
+            parser.read();
+            count = parser.readContainerSize(keyWidth + 1);
+        }
+        this.containers[d] = container;
+        this.types[d] = type;
+        this.counts[d] = count;
+        this.valueNext = false;
+    }
+
+    protected void pop() {
+        this.parser.depth--;
+        this.depth--;
+        this.valueNext = false;
+    }
+
+    /**
+     * @return The most recent event returned by {@link #nextEvent}.
+     */
+    public UBEvent currentEvent() {
+        return this.event;
+    }
+
+    /**
+     * @return The {@link UBMarker marker} of the current value, or
+     *         the size marker of the current key.
+     */
+    public byte currentType() {
+        return this.current;
+    }
+
+    /**
+     * @return The number of containers currently open.
+     */
+    public int depth() {
+        return this.depth;
+    }
+
+    /**
+     * @return The number of values remaining in the current container,
+     *         or -1 if the container is unsized.
+     */
+    public int remaining() {
+        return this.depth > 0 ? this.counts[this.depth] : -1;
+    }
+
+    public boolean readBoolean() throws IOException {
+        if (this.event != UBEvent.BOOLEAN) {
+            throw this.unexpected("boolean");
+        }
+        return this.current == UBMarker.TRUE;
+    }
+
+    public long readLong() throws IOException {
+        if (this.event != UBEvent.INTEGER || !this.pending) {
+            throw this.unexpected("integer");
+        }
+        this.pending = false;
+        if (this.current == UBMarker.CHAR) {
+            return this.parser.read();
+        }
+        return this.parser.readInt(this.current);
+    }
+
+    public double readDouble() throws IOException {
+        if (this.event == UBEvent.INTEGER) {
+            return this.readLong();
+        } else if (this.event != UBEvent.FLOAT || !this.pending) {
+            throw this.unexpected("number");
+        }
+        this.pending = false;
+        if (this.current == UBMarker.FLOAT32) {
+            return this.parser.readFloat32();
+        }
+        return this.parser.readFloat64();
+    }
+
+    /**
+     * Reads the current string value or object key.
+     *
+     * @return The decoded string.
+     * @throws IOException If the current event is not a string or key.
+     */
+    public String readString() throws IOException {
+        if (!this.pending) {
+            throw this.unexpected("string");
+        } else if (this.event == UBEvent.KEY) {
+            this.pending = false;
+            return this.parser.readKey(this.current);
+        } else if (this.event == UBEvent.STRING) {
+            this.pending = false;
+            return this.parser.readString();
+        }
+        throw this.unexpected("string");
+    }
+
+    /**
+     * Decodes the entirety of the current value into a {@link JsonValue}.
+     * If the current event begins a container, the whole container will
+     * be read and the reader will be positioned at its end.
+     *
+     * @return The decoded value.
+     * @throws IOException If the value is malformed or cannot be read.
+     */
+    public JsonValue readValue() throws IOException {
+        final UbjsonParser parser = this.parser;
+        final int d = this.depth;
+        switch (this.event) {
+            case START_ARRAY -> {
+                final JsonValue array;
+                if (this.types[d] != 0) {
+                    array = parser.readOptimizedArray(this.counts[d], this.types[d]);
+                } else if (this.counts[d] >= 0) {
+                    array = parser.readSizedArray(this.counts[d]);
+                } else {
+                    array = parser.readGenericArray(parser.read());
+                }
+                this.end(UBEvent.END_ARRAY);
+                return array;
+            }
+            case START_OBJECT -> {
+                final JsonValue object;
+                if (this.types[d] != 0) {
+                    object = parser.readOptimizedObject(this.counts[d], this.types[d]);
+                } else if (this.counts[d] >= 0) {
+                    object = parser.readSizedObject(this.counts[d]);
+                } else {
+                    object = parser.readGenericObject(parser.read());
+                }
+                this.end(UBEvent.END_OBJECT);
+                return object;
+            }
+            case NULL, BOOLEAN -> {
+                return parser.readValue(this.current);
+            }
+            case INTEGER, FLOAT, STRING -> {
+                if (this.pending) {
+                    this.pending = false;
+                    return parser.readValue(this.current);
+                }
+            }
+        }
+        throw this.unexpected("value");
+    }
+
+    /**
+     * Skips the current value without decoding it. If the current event
+     * begins a container, the reader will be positioned at its end.
+     *
+     * @throws IOException If the value is malformed or cannot be read.
+     */
+    public void skipValue() throws IOException {
+        final UbjsonParser parser = this.parser;
+        final int d = this.depth;
+        switch (this.event) {
+            case START_ARRAY -> {
+                if (this.types[d] != 0) {
+                    parser.skipOptimizedArray(this.counts[d], this.types[d]);
+                } else if (this.counts[d] >= 0) {
+                    parser.skipSizedArray(this.counts[d]);
+                } else {
+                    parser.skipGenericArray(parser.read());
+                }
+                this.end(UBEvent.END_ARRAY);
+            }
+            case START_OBJECT -> {
+                if (this.types[d] != 0) {
+                    parser.skipOptimizedObject(this.counts[d], this.types[d]);
+                } else if (this.counts[d] >= 0) {
+                    parser.skipSizedObject(this.counts[d]);
+                } else {
+                    parser.skipGenericObject(parser.read());
+                }
+                this.end(UBEvent.END_OBJECT);
+            }
+            case KEY -> {
+                this.skipPending();
+                this.nextMemberValue();
+                this.skipValue();
+            }
+            default -> this.skipPending();
+        }
+    }
+
+    protected void skipPending() throws IOException {
+        if (!this.pending) {
+            return;
+        } else if (this.event == UBEvent.KEY) {
+            this.parser.skipString(this.current);
+        } else {
+            this.parser.skipValue(this.current);
+        }
+        this.pending = false;
+    }
+
+    protected IllegalStateException unexpected(final String expected) {
+        return new IllegalStateException("Expected " + expected + ", but was " + this.event);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.parser.close();
+    }
+}
@@ -0,0 +1,178 @@
+package xjs.compat.serialization.parser;
+
+import org.jetbrains.annotations.Nullable;
+import xjs.compat.serialization.util.UBReferences;
+import xjs.compat.serialization.util.UBSummary;
+import xjs.data.JsonValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A parser for UBJSON written with the string reference extension. See
+ * {@link UBReferences} for a description of the format.
+ *
+ * <p>The table of strings is shared by every value in the input, and is
+ * only cleared when this parser is reset. Because every key is already
+ * decoded once per input, any {@link xjs.compat.serialization.util.UBKeyCache}
+ * is ignored.
+ */
+public class UbjsonRefParser extends UbjsonParser {
+    protected final List<String> strings = new ArrayList<>();
+    protected boolean started;
+    protected CharsetDecoder strictDecoder;
+
+    public UbjsonRefParser(final File file) throws IOException {
+        super(file);
+    }
+
+    public UbjsonRefParser(final FileChannel channel) throws IOException {
+        super(channel);
+    }
+
+    public UbjsonRefParser(final InputStream input) {
+        super(input);
+    }
+
+    public UbjsonRefParser(final InputStream input, final int bufferSize) {
+        super(input, bufferSize);
+    }
+
+    public UbjsonRefParser(final byte[] bytes) {
+        super(bytes);
+    }
+
+    public UbjsonRefParser(final byte[] bytes, final int offset, final int length) {
+        super(bytes, offset, length);
+    }
+
+    public UbjsonRefParser(final ByteBuffer buffer) {
+        super(buffer);
+    }
+
+    public static UbjsonRefParser open(final File file) throws IOException {
+        if (file.length() < MAPPING_THRESHOLD) {
+            return new UbjsonRefParser(file);
+        }
+        return new UbjsonRefParser(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    @Override
+    protected void resetState() {
+        super.resetState();
+        this.strings.clear();
+        this.started = false;
+    }
+
+    @Override
+    public <T> T parseRecord(final Class<T> type) throws IOException {
+        this.readHeader();
+        return super.parseRecord(type);
+    }
+
+    @Override
+    public UBSummary validate() throws IOException {
+        this.readHeader();
+        return super.validate();
+    }
+
+    @Override
+    public @Nullable JsonValue extract(final String path) throws IOException {
+        this.readHeader();
+        return super.extract(path);
+    }
+
+    @Override
+    protected JsonValue readValue() throws IOException {
+        this.readHeader();
+        return super.readValue();
+    }
+
+    protected void readHeader() throws IOException {
+        if (this.started) {
+            return;
+        }
+        if (this.read() != UBReferences.HEADER) {
+            throw new IOException("Missing string reference header");
+        }
+        final byte version = this.read();
+        if (version != UBReferences.VERSION) {
+            throw new IOException("Unsupported string reference version: " + version);
+        }
+        this.started = true;
+    }
+
+    @Override
+    protected String readString(final byte sizeType) throws IOException {
+        if (sizeType == UBReferences.REFERENCE) {
+            return this.readStringReference();
+        }
+        final int size = this.readStringSize(sizeType);
+        final String s = this.decodeString(size);
+        if (UBReferences.isIndexed(size, this.strings.size())) {
+            this.strings.add(s);
+        }
+        return s;
+    }
+
+    @Override
+    protected String readKey(final byte sizeType) throws IOException {
+        return this.readString(sizeType);
+    }
+
+    @Override
+    protected boolean matchKey(final byte[] expected, final byte sizeType) throws IOException {
+        return this.readString(sizeType).equals(new String(expected, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    protected void skipString(final byte sizeType) throws IOException {
+        if (sizeType == UBReferences.REFERENCE) {
+            this.readStringReference();
+            return;
+        }
+        final int size = this.readStringSize(sizeType);
+        if (UBReferences.isIndexed(size, this.strings.size())) {
+            // later references depend on this string
+            this.strings.add(this.decodeString(size));
+        } else {
+            this.skip(size);
+        }
+    }
+
+    @Override
+    protected void validateString(final byte sizeType) throws IOException {
+        if (sizeType == UBReferences.REFERENCE) {
+            this.readStringReference();
+            return;
+        }
+        final int size = this.readStringSize(sizeType);
+        if (!UBReferences.isIndexed(size, this.strings.size())) {
+            this.validateUtf8(size);
+            return;
+        }
+        CharsetDecoder decoder = this.strictDecoder;
+        if (decoder == null) {
+            this.strictDecoder = decoder = StandardCharsets.UTF_8.newDecoder();
+        }
+        final byte[] bytes = new byte[size];
+        this.readFully(bytes, 0, size);
+        this.strings.add(decoder.decode(ByteBuffer.wrap(bytes)).toString());
+    }
+
+    protected String readStringReference() throws IOException {
+        final int index = this.readSize();
+        if (index >= this.strings.size()) {
+            throw new IOException("Invalid string reference: " + index);
+        }
+        return this.strings.get(index);
+    }
+}
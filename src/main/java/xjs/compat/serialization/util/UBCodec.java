@@ -0,0 +1,245 @@
+package xjs.compat.serialization.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes how a record or plain Java class is bound to a UBJSON object,
+ * so that it may be read and written without building a {@link
+ * xjs.data.JsonObject} in between.
+ *
+ * <p>Records are bound by their components and created through their
+ * canonical constructor. Other classes are bound by their non-static,
+ * non-transient fields and must declare a no-arg constructor. Each codec
+ * is created once per class and cached.
+ *
+ * @param <T> The type of object being bound.
+ */
+public final class UBCodec<T> {
+    private static final ClassValue<UBCodec<?>> CODECS = new ClassValue<>() {
+        @Override
+        protected UBCodec<?> computeValue(final Class<?> type) {
+            return new UBCodec<>(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final String[] names;
+    private final Class<?>[] types;
+    private final Type[] genericTypes;
+    private final MethodHandle[] getters;
+    private final MethodHandle[] setters;
+    private final MethodHandle constructor;
+    private final Map<String, Integer> indices;
+
+    private UBCodec(final Class<T> type) {
+        this.type = type;
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            if (type.isRecord()) {
+                final RecordComponent[] components = type.getRecordComponents();
+                final int size = components.length;
+                this.names = new String[size];
+                this.types = new Class<?>[size];
+                this.genericTypes = new Type[size];
+                this.getters = new MethodHandle[size];
+                this.setters = null;
+                for (int i = 0; i < size; i++) {
+                    final RecordComponent component = components[i];
+                    this.names[i] = component.getName();
+                    this.types[i] = component.getType();
+                    this.genericTypes[i] = component.getGenericType();
+                    component.getAccessor().setAccessible(true);
+                    this.getters[i] = lookup.unreflect(component.getAccessor());
+                }
+                final Constructor<T> canonical = type.getDeclaredConstructor(this.types);
+                canonical.setAccessible(true);
+                this.constructor = lookup.unreflectConstructor(canonical)
+                    .asSpreader(Object[].class, size)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            } else {
+                final List<Field> fields = new ArrayList<>();
+                for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                    for (final Field field : c.getDeclaredFields()) {
+                        final int modifiers = field.getModifiers();
+                        if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                            fields.add(field);
+                        }
+                    }
+                }
+                final int size = fields.size();
+                this.names = new String[size];
+                this.types = new Class<?>[size];
+                this.genericTypes = new Type[size];
+                this.getters = new MethodHandle[size];
+                this.setters = new MethodHandle[size];
+                for (int i = 0; i < size; i++) {
+                    final Field field = fields.get(i);
+                    field.setAccessible(true);
+                    this.names[i] = field.getName();
+                    this.types[i] = field.getType();
+                    this.genericTypes[i] = field.getGenericType();
+                    this.getters[i] = lookup.unreflectGetter(field);
+                    this.setters[i] = lookup.unreflectSetter(field);
+                }
+                final Constructor<T> noArgs = type.getDeclaredConstructor();
+                noArgs.setAccessible(true);
+                this.constructor = lookup.unreflectConstructor(noArgs)
+                    .asType(MethodType.methodType(Object.class));
+            }
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalArgumentException("Cannot bind " + type.getName(), e);
+        }
+        this.indices = new HashMap<>();
+        for (int i = 0; i < this.names.length; i++) {
+            this.indices.put(this.names[i], i);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> UBCodec<T> of(final Class<T> type) {
+        return (UBCodec<T>) CODECS.get(type);
+    }
+
+    /**
+     * Indicates whether a class should be bound through a codec, rather
+     * than being treated as a value in its own right.
+     *
+     * @param type The class being checked.
+     * @return <code>true</code>, if the type is a record or plain object.
+     */
+    public static boolean isBindable(final Class<?> type) {
+        if (type.isRecord()) {
+            return true;
+        }
+        return !type.isPrimitive() && !type.isArray() && !type.isEnum() && !type.isInterface()
+            && !Modifier.isAbstract(type.getModifiers()) && !type.getName().startsWith("java.");
+    }
+
+    public Class<T> getType() {
+        return this.type;
+    }
+
+    public int size() {
+        return this.names.length;
+    }
+
+    public String getName(final int index) {
+        return this.names[index];
+    }
+
+    public Class<?> getType(final int index) {
+        return this.types[index];
+    }
+
+    public Type getGenericType(final int index) {
+        return this.genericTypes[index];
+    }
+
+    /**
+     * Gets the declared type of the elements of a collection at the given
+     * index, or <code>Object</code> if it cannot be determined.
+     *
+     * @param index The index of a collection-typed member.
+     * @return The type of its elements.
+     */
+    public Class<?> getElementType(final int index) {
+        return getElementType(this.genericTypes[index]);
+    }
+
+    public static Class<?> getElementType(final Type type) {
+        if (type instanceof Class<?> c && c.isArray()) {
+            return c.getComponentType();
+        } else if (type instanceof ParameterizedType p) {
+            final Type[] arguments = p.getActualTypeArguments();
+            if (arguments.length == 1) {
+                if (arguments[0] instanceof Class<?> c) {
+                    return c;
+                } else if (arguments[0] instanceof ParameterizedType e) {
+                    return (Class<?>) e.getRawType();
+                }
+            }
+        }
+        return Object.class;
+    }
+
+    /**
+     * Gets the index of the member with the given name.
+     *
+     * @param name The name of the member.
+     * @return Its index, or -1 if there is no such member.
+     */
+    public int indexOf(final String name) {
+        final Integer index = this.indices.get(name);
+        return index != null ? index : -1;
+    }
+
+    public Object get(final T instance, final int index) {
+        try {
+            return this.getters[index].invoke(instance);
+        } catch (final Throwable t) {
+            throw new IllegalStateException("Cannot read " + this.names[index], t);
+        }
+    }
+
+    /**
+     * Creates a new instance from the value of each member, in order.
+     * Members which are absent or <code>null</code> but must be primitive
+     * receive their default value.
+     *
+     * @param values The value of each member, which may be modified.
+     * @return A new instance of the bound type.
+     */
+    @SuppressWarnings("unchecked")
+    public T create(final Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null && this.types[i].isPrimitive()) {
+                values[i] = defaultValue(this.types[i]);
+            }
+        }
+        try {
+            if (this.setters == null) {
+                return (T) (Object) this.constructor.invokeExact(values);
+            }
+            final T instance = (T) (Object) this.constructor.invokeExact();
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    this.setters[i].invoke(instance, values[i]);
+                }
+            }
+            return instance;
+        } catch (final Throwable t) {
+            throw new IllegalStateException("Cannot create " + this.type.getName(), t);
+        }
+    }
+
+    private static Object defaultValue(final Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0F;
+        }
+        return 0D;
+    }
+}
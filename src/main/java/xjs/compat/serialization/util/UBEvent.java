@@ -0,0 +1,62 @@
+package xjs.compat.serialization.util;
+
+/**
+ * The types of events produced when reading UBJSON as a stream.
+ */
+public enum UBEvent {
+
+    /**
+     * The beginning of an array.
+     */
+    START_ARRAY,
+
+    /**
+     * The end of an array.
+     */
+    END_ARRAY,
+
+    /**
+     * The beginning of an object.
+     */
+    START_OBJECT,
+
+    /**
+     * The end of an object.
+     */
+    END_OBJECT,
+
+    /**
+     * The key of an object member.
+     */
+    KEY,
+
+    /**
+     * A null literal.
+     */
+    NULL,
+
+    /**
+     * A true or false literal.
+     */
+    BOOLEAN,
+
+    /**
+     * An integer or single character of any size.
+     */
+    INTEGER,
+
+    /**
+     * A 32 or 64-bit float.
+     */
+    FLOAT,
+
+    /**
+     * A string of characters.
+     */
+    STRING,
+
+    /**
+     * The end of the input.
+     */
+    END_DOCUMENT
+}
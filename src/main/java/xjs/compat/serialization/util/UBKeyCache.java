@@ -0,0 +1,75 @@
+package xjs.compat.serialization.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A bounded cache of object keys indexed by their raw UTF-8 bytes. When
+ * the same keys are read repeatedly, a hit returns the canonical string
+ * without decoding or allocating anything.
+ *
+ * <p>The cache is direct-mapped: each key may only occupy a single slot,
+ * and colliding keys replace one another. To keep alternating keys from
+ * evicting each other on every read, an occupied slot is only replaced
+ * the second time in a row that the same key misses it. The cache may be
+ * shared between threads, in which case a concurrent write may
+ * occasionally be lost.
+ */
+public class UBKeyCache {
+    protected static final int DEFAULT_CAPACITY = 1024;
+    protected static final int DEFAULT_MAX_KEY_LENGTH = 64;
+
+    protected final Entry[] entries;
+    protected final int[] candidates;
+    protected final int maxKeyLength;
+
+    public UBKeyCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_KEY_LENGTH);
+    }
+
+    /**
+     * @param capacity     The number of slots, rounded up to a power of 2.
+     * @param maxKeyLength The length in bytes of the longest cacheable key.
+     */
+    public UBKeyCache(final int capacity, final int maxKeyLength) {
+        final int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.entries = new Entry[size];
+        this.candidates = new int[size];
+        this.maxKeyLength = maxKeyLength;
+    }
+
+    public String get(final byte[] bytes, final int offset, final int length) {
+        if (length > this.maxKeyLength) {
+            return new String(bytes, offset, length, StandardCharsets.UTF_8);
+        }
+        final int hash = hash(bytes, offset, length);
+        final int index = hash & (this.entries.length - 1);
+        final Entry entry = this.entries[index];
+        if (entry != null
+                && Arrays.equals(entry.bytes, 0, entry.bytes.length, bytes, offset, offset + length)) {
+            return entry.key;
+        }
+        final String key = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        if (entry != null) {
+            // never 0, which marks an empty candidate
+            final int candidate = hash | 1;
+            if (this.candidates[index] != candidate) {
+                this.candidates[index] = candidate;
+                return key;
+            }
+            this.candidates[index] = 0;
+        }
+        this.entries[index] = new Entry(Arrays.copyOfRange(bytes, offset, offset + length), key);
+        return key;
+    }
+
+    protected static int hash(final byte[] bytes, final int offset, final int length) {
+        int hash = length;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    protected record Entry(byte[] bytes, String key) {}
+}
@@ -0,0 +1,49 @@
+package xjs.compat.serialization.util;
+
+/**
+ * Bounds on the resources a UBJSON parser may spend on a single value.
+ * Every limit is checked before the memory it guards is allocated, so
+ * that a corrupt or malicious length prefix fails fast instead of
+ * exhausting the heap.
+ *
+ * <p>The total size of a value is checked whenever the input is refilled,
+ * a string or typed payload is read, a container begins, and an element
+ * is added to a container. Regardless of the source of input, a value
+ * may therefore only run past it by the scalar elements of a single
+ * container.
+ *
+ * @param maxStringBytes   The length in bytes of the longest string or key.
+ * @param maxContainerSize The number of elements in the largest container.
+ * @param maxDepth         The deepest level of nested containers.
+ * @param maxTotalBytes    The size in bytes of the largest top-level value.
+ */
+public record UBLimits(int maxStringBytes, int maxContainerSize, int maxDepth, long maxTotalBytes) {
+
+    /**
+     * Imposes no limits other than those of the format itself.
+     */
+    public static final UBLimits NONE =
+        new UBLimits(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    public UBLimits {
+        if (maxStringBytes < 0 || maxContainerSize < 0 || maxDepth < 0 || maxTotalBytes < 0) {
+            throw new IllegalArgumentException("Limits may not be negative");
+        }
+    }
+
+    public UBLimits withMaxStringBytes(final int maxStringBytes) {
+        return new UBLimits(maxStringBytes, this.maxContainerSize, this.maxDepth, this.maxTotalBytes);
+    }
+
+    public UBLimits withMaxContainerSize(final int maxContainerSize) {
+        return new UBLimits(this.maxStringBytes, maxContainerSize, this.maxDepth, this.maxTotalBytes);
+    }
+
+    public UBLimits withMaxDepth(final int maxDepth) {
+        return new UBLimits(this.maxStringBytes, this.maxContainerSize, maxDepth, this.maxTotalBytes);
+    }
+
+    public UBLimits withMaxTotalBytes(final long maxTotalBytes) {
+        return new UBLimits(this.maxStringBytes, this.maxContainerSize, this.maxDepth, maxTotalBytes);
+    }
+}
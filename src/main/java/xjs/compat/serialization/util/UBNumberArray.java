@@ -0,0 +1,192 @@
+package xjs.compat.serialization.util;
+
+import xjs.data.Json;
+import xjs.data.JsonArray;
+import xjs.data.JsonReference;
+import xjs.data.JsonValue;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A {@link JsonArray} backed by a primitive array, corresponding to a
+ * strongly-typed numeric array in UBJSON. Elements are only wrapped in
+ * {@link JsonValue}s when they are accessed, and unmodified arrays can
+ * be written back to UBJSON in bulk.
+ *
+ * <p>Any structural modification copies the elements into an ordinary
+ * list, after which this array behaves like any other {@link JsonArray}.
+ */
+public class UBNumberArray extends JsonArray {
+    private final NumberList numbers;
+
+    public UBNumberArray(final byte[] data, final boolean unsigned) {
+        this(new NumberList(unsigned ? UBMarker.U_INT8 : UBMarker.INT8, data, data.length));
+    }
+
+    public UBNumberArray(final short[] data) {
+        this(new NumberList(UBMarker.INT16, data, data.length));
+    }
+
+    public UBNumberArray(final int[] data) {
+        this(new NumberList(UBMarker.INT32, data, data.length));
+    }
+
+    public UBNumberArray(final long[] data) {
+        this(new NumberList(UBMarker.INT64, data, data.length));
+    }
+
+    public UBNumberArray(final float[] data) {
+        this(new NumberList(UBMarker.FLOAT32, data, data.length));
+    }
+
+    public UBNumberArray(final double[] data) {
+        this(new NumberList(UBMarker.FLOAT64, data, data.length));
+    }
+
+    private UBNumberArray(final NumberList numbers) {
+        super(numbers);
+        this.numbers = numbers;
+    }
+
+    /**
+     * @return The {@link UBMarker marker} of every number in this array.
+     */
+    public byte getNumberType() {
+        return this.numbers.type;
+    }
+
+    /**
+     * @return The backing primitive array, e.g. an <code>int[]</code>.
+     */
+    public Object getData() {
+        return this.numbers.data;
+    }
+
+    /**
+     * @return Whether the backing array may no longer reflect the contents
+     *         of this array.
+     */
+    public boolean isModified() {
+        return this.numbers.modified;
+    }
+
+    public long getLong(final int index) {
+        return this.numbers.getLong(index);
+    }
+
+    public double getDouble(final int index) {
+        return this.numbers.getDouble(index);
+    }
+
+    private static class NumberList extends AbstractList<JsonReference> implements RandomAccess {
+        final byte type;
+        final Object data;
+        final int size;
+        JsonReference[] references;
+        List<JsonReference> inflated;
+        boolean modified;
+
+        NumberList(final byte type, final Object data, final int size) {
+            this.type = type;
+            this.data = data;
+            this.size = size;
+        }
+
+        long getLong(final int index) {
+            return switch (this.type) {
+                case UBMarker.U_INT8 -> ((byte[]) this.data)[index] & 0xFF;
+                case UBMarker.INT8 -> ((byte[]) this.data)[index];
+                case UBMarker.INT16 -> ((short[]) this.data)[index];
+                case UBMarker.INT32 -> ((int[]) this.data)[index];
+                case UBMarker.INT64 -> ((long[]) this.data)[index];
+                default -> (long) this.getDouble(index);
+            };
+        }
+
+        double getDouble(final int index) {
+            return switch (this.type) {
+                case UBMarker.FLOAT32 -> ((float[]) this.data)[index];
+                case UBMarker.FLOAT64 -> ((double[]) this.data)[index];
+                default -> this.getLong(index);
+            };
+        }
+
+        JsonValue getValue(final int index) {
+            return switch (this.type) {
+                case UBMarker.FLOAT32 -> Json.value(((float[]) this.data)[index]);
+                case UBMarker.FLOAT64 -> Json.value(((double[]) this.data)[index]);
+                default -> Json.value(this.getLong(index));
+            };
+        }
+
+        @Override
+        public JsonReference get(final int index) {
+            if (this.inflated != null) {
+                return this.inflated.get(index);
+            }
+            if (index < 0 || index >= this.size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            if (this.references == null) {
+                this.references = new JsonReference[this.size];
+            }
+            JsonReference reference = this.references[index];
+            if (reference == null) {
+                reference = new NumberReference(this, this.getValue(index));
+                this.references[index] = reference;
+            }
+            return reference;
+        }
+
+        @Override
+        public int size() {
+            return this.inflated != null ? this.inflated.size() : this.size;
+        }
+
+        @Override
+        public JsonReference set(final int index, final JsonReference reference) {
+            return this.inflate().set(index, reference);
+        }
+
+        @Override
+        public void add(final int index, final JsonReference reference) {
+            this.inflate().add(index, reference);
+        }
+
+        @Override
+        public JsonReference remove(final int index) {
+            return this.inflate().remove(index);
+        }
+
+        List<JsonReference> inflate() {
+            if (this.inflated == null) {
+                final List<JsonReference> inflated = new ArrayList<>(this.size + 1);
+                for (int i = 0; i < this.size; i++) {
+                    inflated.add(this.get(i));
+                }
+                this.inflated = inflated;
+                this.references = null;
+            }
+            this.modified = true;
+            return this.inflated;
+        }
+    }
+
+    private static class NumberReference extends JsonReference {
+        private final NumberList parent;
+
+        NumberReference(final NumberList parent, final JsonValue value) {
+            super(value);
+            this.parent = parent;
+        }
+
+        @Override
+        public JsonReference set(final JsonValue value) {
+            this.parent.modified = true;
+            return super.set(value);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package xjs.compat.serialization.util;
+
+/**
+ * Constants describing the string reference extension to UBJSON, which
+ * is written by {@link xjs.compat.serialization.writer.UbjsonRefWriter}
+ * and read by {@link xjs.compat.serialization.parser.UbjsonRefParser}.
+ * This is <b>not</b> standard UBJSON and cannot be read by other parsers.
+ *
+ * <p>A stream begins with {@link #HEADER} followed by a single {@link
+ * #VERSION} byte. Afterward, each string or key is written normally the
+ * first time it appears and assigned the next index in a table shared by
+ * every value in the stream. Any later occurrence is written as {@link
+ * #REFERENCE} followed by that index, in place of the string's length.
+ *
+ * <p>Only strings no longer than {@link #MAX_LENGTH} bytes are added to
+ * the table, and only until it holds {@link #MAX_ENTRIES} strings. Both
+ * sides apply this rule independently, so the table is never written.
+ */
+public final class UBReferences {
+    public static final byte HEADER = 'R';
+    public static final byte VERSION = 1;
+    public static final byte REFERENCE = 'R';
+    public static final int MAX_LENGTH = 128;
+    public static final int MAX_ENTRIES = 1 << 16;
+
+    private UBReferences() {}
+
+    /**
+     * Indicates whether a string should be added to the table.
+     *
+     * @param length  The length of the string in bytes.
+     * @param entries The number of strings already in the table.
+     * @return <code>true</code>, if the string gets an index.
+     */
+    public static boolean isIndexed(final int length, final int entries) {
+        return length <= MAX_LENGTH && entries < MAX_ENTRIES;
+    }
+}
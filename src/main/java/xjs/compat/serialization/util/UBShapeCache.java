@@ -0,0 +1,145 @@
+package xjs.compat.serialization.util;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache of object shapes, where a shape is the sequence of keys
+ * in an object along with the kind of each value. When many objects share
+ * a shape, their keys are encoded once and copied directly into the
+ * output, and the layout of the object is only decided once.
+ *
+ * <p>The cache is direct-mapped: each shape may only occupy a single
+ * slot, and colliding shapes replace one another. To keep shapes which
+ * only appear once from evicting useful entries, a shape is only admitted
+ * the second time in a row that it misses its slot. The cache may be
+ * shared between threads, in which case a concurrent write may
+ * occasionally be lost.
+ */
+public class UBShapeCache {
+    protected static final int DEFAULT_CAPACITY = 256;
+    protected static final int DEFAULT_MAX_SIZE = 64;
+
+    /**
+     * The kind of any numeric value. Every other kind is the marker of the
+     * value, except that <code>true</code> and <code>false</code> are both
+     * {@link UBMarker#TRUE}.
+     */
+    public static final byte NUMBER = 'N';
+
+    protected final Shape[] entries;
+    protected final int[] candidates;
+    protected final int maxSize;
+
+    public UBShapeCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param capacity The number of slots, rounded up to a power of 2.
+     * @param maxSize  The number of members in the largest cacheable object.
+     */
+    public UBShapeCache(final int capacity, final int maxSize) {
+        final int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.entries = new Shape[size];
+        this.candidates = new int[size];
+        this.maxSize = maxSize;
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Looks up the shape of an object.
+     *
+     * @param typing The level of typing the object is written with.
+     * @param keys   The keys of the object, which may be a larger array.
+     * @param kinds  The kind of each value, which may be a larger array.
+     * @param size   The number of members in the object.
+     * @return The shape, or <code>null</code> if it is not cached.
+     */
+    public Shape get(final UBTyping typing, final String[] keys, final byte[] kinds, final int size) {
+        final Shape shape = this.entries[hash(keys, kinds, size) & (this.entries.length - 1)];
+        if (shape != null && shape.matches(typing, keys, kinds, size)) {
+            return shape;
+        }
+        return null;
+    }
+
+    /**
+     * Records a miss for the shape of an object, deciding whether it has
+     * been seen often enough to be cached.
+     *
+     * @param typing The level of typing the object is written with.
+     * @param keys   The keys of the object, which may be a larger array.
+     * @param kinds  The kind of each value, which may be a larger array.
+     * @param size   The number of members in the object.
+     * @return <code>true</code> if the shape should be {@link #put}.
+     */
+    public boolean admit(final UBTyping typing, final String[] keys, final byte[] kinds, final int size) {
+        final int hash = hash(keys, kinds, size);
+        final int slot = hash & (this.entries.length - 1);
+        // distinguishes typings sharing a slot, and is never 0
+        final int candidate = (31 * hash + typing.ordinal()) | 1;
+        if (this.candidates[slot] == candidate) {
+            this.candidates[slot] = 0;
+            return true;
+        }
+        this.candidates[slot] = candidate;
+        return false;
+    }
+
+    public void put(final Shape shape) {
+        this.entries[hash(shape.keys, shape.kinds, shape.keys.length) & (this.entries.length - 1)] = shape;
+    }
+
+    protected static int hash(final String[] keys, final byte[] kinds, final int size) {
+        int hash = size;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * (31 * hash + keys[i].hashCode()) + kinds[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * The encoding plan for every object of a given shape.
+     *
+     * @param typing     The level of typing the plan was made for.
+     * @param keys       The key of each member.
+     * @param kinds      The kind of each value.
+     * @param type       The type of every value, or 0 if each value has its
+     *                   own marker. Only meaningful if not numeric.
+     * @param numeric    Whether every value is a number, in which case the
+     *                   type depends on the values and must be decided
+     *                   for each object.
+     * @param keyBytes   Every key, encoded as a UBJSON string without its
+     *                   marker.
+     * @param keyOffsets The offset of each key in <code>keyBytes</code>,
+     *                   followed by its total length.
+     */
+    public record Shape(
+            UBTyping typing, String[] keys, byte[] kinds, byte type,
+            boolean numeric, byte[] keyBytes, int[] keyOffsets) {
+
+        public int keyOffset(final int index) {
+            return this.keyOffsets[index];
+        }
+
+        public int keyLength(final int index) {
+            return this.keyOffsets[index + 1] - this.keyOffsets[index];
+        }
+
+        boolean matches(final UBTyping typing, final String[] keys, final byte[] kinds, final int size) {
+            if (this.typing != typing || this.keys.length != size
+                    || !Arrays.equals(this.kinds, 0, size, kinds, 0, size)) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                if (!this.keys[i].equals(keys[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
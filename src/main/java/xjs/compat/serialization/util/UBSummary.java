@@ -0,0 +1,15 @@
+package xjs.compat.serialization.util;
+
+/**
+ * The shape of a well-formed UBJSON value, as reported by {@link
+ * xjs.compat.serialization.parser.UbjsonParser#validate}.
+ *
+ * @param type       The marker of the top-level value.
+ * @param length     The size of the value in bytes.
+ * @param depth      The deepest level of nested containers.
+ * @param size       The number of elements in the top-level container, or
+ *                   0 if the value is not a container.
+ * @param values     The number of values, including the top-level value.
+ * @param containers The number of arrays and objects.
+ */
+public record UBSummary(byte type, long length, int depth, int size, long values, long containers) {}
@@ -11,6 +11,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.function.Function;
 
 @FunctionalInterface
@@ -29,6 +32,31 @@ public interface BinaryWritingFunction extends WritingFunction {
         this.write(new FileOutputStream(file), value, options);
     }
 
+    /**
+     * Writes a value into the given buffer, starting at its position. The
+     * position of the buffer is advanced past the value.
+     *
+     * <p>The default implementation encodes the value into a temporary
+     * array and copies it into the buffer.
+     */
+    default void write(final ByteBuffer target, final JsonValue value, final JsonWriterOptions options) throws IOException {
+        final var os = new ByteArrayOutputStream();
+        this.write(os, value, options);
+        target.put(os.toByteArray());
+    }
+
+    /**
+     * Writes a value to the given channel. The channel is not closed.
+     *
+     * <p>The default implementation encodes the value into a temporary
+     * array and writes it to the channel.
+     */
+    default void write(final WritableByteChannel channel, final JsonValue value, final JsonWriterOptions options) throws IOException {
+        final var os = new ByteArrayOutputStream();
+        this.write(os, value, options);
+        os.writeTo(Channels.newOutputStream(channel));
+    }
+
     @Override
     default String stringify(final JsonValue value, final JsonWriterOptions options) throws IOException {
         final var os = new ByteArrayOutputStream();
@@ -48,4 +76,27 @@ public interface BinaryWritingFunction extends WritingFunction {
             }
         };
     }
+
+    static BinaryWritingFunction fromWriter(
+            final Function<OutputStream, ValueWriter> c,
+            final Function<ByteBuffer, ValueWriter> b,
+            final Function<WritableByteChannel, ValueWriter> ch) {
+        final BinaryWritingFunction streams = fromWriter(c);
+        return new BinaryWritingFunction() {
+            @Override
+            public void write(final OutputStream os, final JsonValue value, final JsonWriterOptions options) throws IOException {
+                streams.write(os, value, options);
+            }
+
+            @Override
+            public void write(final ByteBuffer target, final JsonValue value, final JsonWriterOptions options) throws IOException {
+                b.apply(target).write(value);
+            }
+
+            @Override
+            public void write(final WritableByteChannel channel, final JsonValue value, final JsonWriterOptions options) throws IOException {
+                ch.apply(channel).write(value);
+            }
+        };
+    }
 }
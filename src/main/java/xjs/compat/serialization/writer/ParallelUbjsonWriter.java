@@ -0,0 +1,299 @@
+package xjs.compat.serialization.writer;
+
+import xjs.compat.serialization.XjsCompat;
+import xjs.compat.serialization.util.UBMarker;
+import xjs.compat.serialization.util.UBTyping;
+import xjs.data.JsonArray;
+import xjs.data.JsonObject;
+import xjs.data.JsonValue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A UBJSON writer which encodes the children of large containers
+ * concurrently. Once the header of a container is written, ranges of its
+ * children are measured and encoded into buffers of exactly the right
+ * size on a {@link ForkJoinPool}, and then written in order, with a
+ * single gathering write when the output is a {@link
+ * GatheringByteChannel}. Nested containers are split in the same way.
+ *
+ * <p>Containers are split whenever they hold at least
+ * <code>threshold</code> values, except for arrays of fixed-width
+ * numbers, which are already written in bulk. The output is identical to
+ * that of a regular {@link UbjsonWriter}.
+ *
+ * <p>Because every range is encoded before any of them is written, the
+ * encoded children of a split container are held in memory at once.
+ */
+public class ParallelUbjsonWriter extends UbjsonWriter {
+    protected static final int DEFAULT_THRESHOLD = 1024;
+
+    protected final ForkJoinPool pool;
+    protected final int threshold;
+
+    public ParallelUbjsonWriter(final OutputStream output) {
+        this(output, XjsCompat.getDefaultUbTyping());
+    }
+
+    public ParallelUbjsonWriter(final OutputStream output, final UBTyping typing) {
+        this(output, typing, ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param output    The destination for bytes.
+     * @param typing    The level of typing to apply.
+     * @param pool      The pool on which to encode children.
+     * @param threshold The minimum number of children to split a container.
+     */
+    public ParallelUbjsonWriter(
+            final OutputStream output, final UBTyping typing, final ForkJoinPool pool, final int threshold) {
+        super(output, typing);
+        this.pool = pool;
+        this.threshold = Math.max(threshold, 1);
+    }
+
+    public ParallelUbjsonWriter(final WritableByteChannel channel, final UBTyping typing) {
+        this(channel, typing, ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param channel   The destination for bytes.
+     * @param typing    The level of typing to apply.
+     * @param pool      The pool on which to encode children.
+     * @param threshold The minimum number of children to split a container.
+     */
+    public ParallelUbjsonWriter(
+            final WritableByteChannel channel, final UBTyping typing, final ForkJoinPool pool, final int threshold) {
+        super(channel, typing);
+        this.pool = pool;
+        this.threshold = Math.max(threshold, 1);
+    }
+
+    public ParallelUbjsonWriter(final ByteBuffer target, final UBTyping typing) {
+        this(target, typing, ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param target    The destination for bytes. See {@link
+     *                  UbjsonWriter#UbjsonWriter(ByteBuffer, UBTyping)}.
+     * @param typing    The level of typing to apply.
+     * @param pool      The pool on which to encode children.
+     * @param threshold The minimum number of children to split a container.
+     */
+    public ParallelUbjsonWriter(
+            final ByteBuffer target, final UBTyping typing, final ForkJoinPool pool, final int threshold) {
+        super(target, typing);
+        this.pool = pool;
+        this.threshold = Math.max(threshold, 1);
+    }
+
+    @Override
+    protected void writeSizedArray(final JsonArray array) throws IOException {
+        if (array.size() < this.threshold) {
+            super.writeSizedArray(array);
+            return;
+        }
+        this.writeByte(UBMarker.OPTIMIZED_SIZE);
+        this.writeInt(array.size());
+        this.writeChildren(null, values(array), (byte) 0);
+    }
+
+    @Override
+    protected void writeGenericArray(final JsonArray array) throws IOException {
+        if (array.size() < this.threshold) {
+            super.writeGenericArray(array);
+            return;
+        }
+        this.writeChildren(null, values(array), (byte) 0);
+        this.writeByte(UBMarker.ARRAY_END);
+    }
+
+    @Override
+    protected void writeOptimizedArray(final JsonArray array, final byte type) throws IOException {
+        if (array.size() < this.threshold || this.getFixedSize(type) >= 0) {
+            super.writeOptimizedArray(array, type);
+            return;
+        }
+        this.writeByte(UBMarker.OPTIMIZED_TYPE);
+        this.writeByte(type);
+        this.writeByte(UBMarker.OPTIMIZED_SIZE);
+        this.writeInt(array.size());
+        this.writeChildren(null, values(array), type);
+    }
+
+    @Override
+    protected void writeSizedObject(final JsonObject object) throws IOException {
+        if (object.size() < this.threshold) {
+            super.writeSizedObject(object);
+            return;
+        }
+        this.writeByte(UBMarker.OPTIMIZED_SIZE);
+        this.writeInt(object.size());
+        this.writeMembers(object, (byte) 0);
+    }
+
+    @Override
+    protected void writeGenericObject(final JsonObject object) throws IOException {
+        if (object.size() < this.threshold) {
+            super.writeGenericObject(object);
+            return;
+        }
+        this.writeMembers(object, (byte) 0);
+        this.writeByte(UBMarker.OBJ_END);
+    }
+
+    @Override
+    protected void writeOptimizedObject(final JsonObject object, final byte type) throws IOException {
+        if (object.size() < this.threshold) {
+            super.writeOptimizedObject(object, type);
+            return;
+        }
+        this.writeByte(UBMarker.OPTIMIZED_TYPE);
+        this.writeByte(type);
+        this.writeByte(UBMarker.OPTIMIZED_SIZE);
+        this.writeInt(object.size());
+        this.writeMembers(object, type);
+    }
+
+    protected void writeMembers(final JsonObject object, final byte type) throws IOException {
+        final String[] keys = new String[object.size()];
+        final JsonValue[] values = new JsonValue[object.size()];
+        int i = 0;
+        for (final JsonObject.Member member : object) {
+            keys[i] = member.getKey();
+            values[i] = member.getOnly();
+            i++;
+        }
+        this.writeChildren(keys, values, type);
+    }
+
+    /**
+     * Encodes a series of children in parallel and writes them in order.
+     *
+     * @param keys   The key of each child, or <code>null</code> in arrays.
+     * @param values The value of each child.
+     * @param type   The type of every child, if their markers are implied,
+     *               or else 0.
+     * @throws IOException If the output throws an exception.
+     */
+    protected void writeChildren(final String[] keys, final JsonValue[] values, final byte type) throws IOException {
+        final int chunks = Math.min(values.length, this.pool.getParallelism() * 4);
+        final ByteBuffer[] results = new ByteBuffer[chunks];
+        final List<RecursiveAction> tasks = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            final int chunk = c;
+            final int from = (int) ((long) values.length * c / chunks);
+            final int to = (int) ((long) values.length * (c + 1) / chunks);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    try {
+                        results[chunk] = ParallelUbjsonWriter.this.encodeRange(keys, values, type, from, to);
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+        try {
+            if (ForkJoinTask.getPool() == this.pool) {
+                ForkJoinTask.invokeAll(tasks);
+            } else {
+                this.pool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(tasks);
+                    }
+                });
+            }
+        } catch (final RuntimeException e) {
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof IOException io) {
+                    throw io;
+                }
+            }
+            throw e;
+        }
+        if (this.channel instanceof GatheringByteChannel gathering) {
+            this.spill();
+            final ByteBuffer last = results[chunks - 1];
+            while (last.hasRemaining()) {
+                gathering.write(results);
+            }
+            return;
+        }
+        for (int c = 0; c < chunks; c++) {
+            final ByteBuffer result = results[c];
+            this.writeBytes(result.array(), result.arrayOffset(), result.remaining());
+            results[c] = null;
+        }
+    }
+
+    /**
+     * Encodes a range of children into a buffer of exactly the right size,
+     * reusing the analysis of each container from measuring it.
+     *
+     * @return A buffer containing the children, ready to be read.
+     */
+    protected ByteBuffer encodeRange(
+            final String[] keys, final JsonValue[] values, final byte type, final int from, final int to) throws IOException {
+        final UbjsonWriter measure = new UbjsonWriter(OutputStream.nullOutputStream(), this.typing, 0);
+        measure.retainPlans = true;
+        long size = 0;
+        for (int i = from; i < to; i++) {
+            if (keys != null) {
+                size += sizeOfRawString(keys[i]);
+            }
+            final JsonValue value = values[i];
+            if (type == 0) {
+                size += measure.sizeOf(value);
+            } else if (value.isArray() || value.isObject()) {
+                // the marker of each container is implied by the type
+                size += measure.sizeOf(value) - 1;
+            } else {
+                size += measure.sizeOfScalar(value, type);
+            }
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Range is too large for a buffer: " + size);
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        final ParallelUbjsonWriter writer = this.fork(buffer);
+        writer.plans = measure.plans;
+        writer.retainPlans = true;
+        for (int i = from; i < to; i++) {
+            if (keys != null) {
+                writer.writeRawString(keys[i]);
+            }
+            if (type == 0) {
+                writer.writeValue(values[i]);
+            } else {
+                writer.writeRawValue(values[i], type);
+            }
+        }
+        writer.drain();
+        return buffer.flip();
+    }
+
+    protected ParallelUbjsonWriter fork(final ByteBuffer target) {
+        return new ParallelUbjsonWriter(target, this.typing, this.pool, this.threshold);
+    }
+
+    private static JsonValue[] values(final JsonArray array) {
+        final JsonValue[] values = new JsonValue[array.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = array.getReference(i).getOnly();
+        }
+        return values;
+    }
+}
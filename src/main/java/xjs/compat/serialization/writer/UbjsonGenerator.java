@@ -0,0 +1,233 @@
+package xjs.compat.serialization.writer;
+
+import xjs.compat.serialization.util.UBMarker;
+import xjs.data.JsonValue;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes UBJSON one token at a time, so that large documents can be
+ * exported without first building a {@link JsonValue} tree.
+ *
+ * <p>Containers opened without a size are written in the generic form
+ * and terminated by {@link #end}. Containers opened with a size are
+ * written with a count header, and must receive exactly that many values
+ * before they are closed.
+ *
+ * <pre>{@code
+ *   generator.beginObject(2)
+ *       .key("id").value(1)
+ *       .key("tags").beginArray().value("a").value("b").end()
+ *       .end();
+ * }</pre>
+ */
+public class UbjsonGenerator implements Closeable, Flushable {
+    private static final int GENERIC = -1;
+    private static final int EMPTY = -2;
+
+    protected final UbjsonWriter writer;
+    protected boolean[] objects = new boolean[16];
+    protected int[] remaining = new int[16];
+    protected int depth;
+    protected boolean hasKey;
+
+    public UbjsonGenerator(final File file) throws IOException {
+        this(new UbjsonWriter(file));
+    }
+
+    public UbjsonGenerator(final OutputStream output) {
+        this(new UbjsonWriter(output));
+    }
+
+    /**
+     * Constructs a generator which writes through the given writer, sharing
+     * its output and typing.
+     *
+     * @param writer The writer receiving each token.
+     */
+    public UbjsonGenerator(final UbjsonWriter writer) {
+        this.writer = writer;
+    }
+
+    public UbjsonGenerator beginArray() throws IOException {
+        return this.begin(false, GENERIC);
+    }
+
+    public UbjsonGenerator beginArray(final int size) throws IOException {
+        return this.begin(false, size);
+    }
+
+    public UbjsonGenerator beginObject() throws IOException {
+        return this.begin(true, GENERIC);
+    }
+
+    public UbjsonGenerator beginObject(final int size) throws IOException {
+        return this.begin(true, size);
+    }
+
+    /**
+     * Writes the key of the next member in the current object.
+     *
+     * @param key The name of the member.
+     * @return <code>this</code>, for method chaining.
+     * @throws IOException If the output throws an exception.
+     * @throws IllegalStateException If the current container is not an
+     *                               object or is already full.
+     */
+    public UbjsonGenerator key(final String key) throws IOException {
+        final int top = this.depth - 1;
+        if (top < 0 || !this.objects[top]) {
+            throw new IllegalStateException("Not in an object");
+        } else if (this.hasKey) {
+            throw new IllegalStateException("Expected a value");
+        }
+        this.consume(top);
+        this.writer.writeRawString(key);
+        this.hasKey = true;
+        return this;
+    }
+
+    public UbjsonGenerator value(final long value) throws IOException {
+        this.beforeValue();
+        this.writer.writeInt(value);
+        return this.afterValue();
+    }
+
+    public UbjsonGenerator value(final double value) throws IOException {
+        this.beforeValue();
+        this.writer.writeNumber(value);
+        return this.afterValue();
+    }
+
+    public UbjsonGenerator value(final boolean value) throws IOException {
+        this.beforeValue();
+        this.writer.writeBool(value);
+        return this.afterValue();
+    }
+
+    public UbjsonGenerator value(final String value) throws IOException {
+        if (value == null) {
+            return this.nullValue();
+        }
+        this.beforeValue();
+        this.writer.writeString(value);
+        return this.afterValue();
+    }
+
+    /**
+     * Writes a complete value, which may itself be a container. This is
+     * useful for emitting small subtrees inside of a streamed document.
+     *
+     * @param value The value being written.
+     * @return <code>this</code>, for method chaining.
+     * @throws IOException If the output throws an exception.
+     */
+    public UbjsonGenerator value(final JsonValue value) throws IOException {
+        this.beforeValue();
+        this.writer.writeValue(value);
+        return this.afterValue();
+    }
+
+    public UbjsonGenerator nullValue() throws IOException {
+        this.beforeValue();
+        this.writer.writeNull();
+        return this.afterValue();
+    }
+
+    /**
+     * Closes the current array or object.
+     *
+     * @return <code>this</code>, for method chaining.
+     * @throws IOException If the output throws an exception.
+     * @throws IllegalStateException If there is no open container, or if a
+     *                               sized container has not been filled.
+     */
+    public UbjsonGenerator end() throws IOException {
+        final int top = this.depth - 1;
+        if (top < 0) {
+            throw new IllegalStateException("No container to end");
+        } else if (this.hasKey) {
+            throw new IllegalStateException("Expected a value");
+        } else if (this.remaining[top] > 0) {
+            throw new IllegalStateException("Expected " + this.remaining[top] + " more values");
+        }
+        if (this.remaining[top] == GENERIC || this.remaining[top] == EMPTY) {
+            this.writer.writeByte(this.objects[top] ? UBMarker.OBJ_END : UBMarker.ARRAY_END);
+        }
+        this.depth = top;
+        return this.afterValue();
+    }
+
+    public int getDepth() {
+        return this.depth;
+    }
+
+    protected UbjsonGenerator begin(final boolean object, final int size) throws IOException {
+        if (size < GENERIC) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+        this.beforeValue();
+        this.writer.writeByte(object ? UBMarker.OBJ_START : UBMarker.ARRAY_START);
+        // empty containers are always written in the generic form
+        if (size > 0) {
+            this.writer.writeByte(UBMarker.OPTIMIZED_SIZE);
+            this.writer.writeInt(size);
+        }
+        final int top = this.depth++;
+        if (top >= this.objects.length) {
+            this.objects = Arrays.copyOf(this.objects, top * 2);
+            this.remaining = Arrays.copyOf(this.remaining, top * 2);
+        }
+        this.objects[top] = object;
+        // empty containers still need an end marker, but accept no values
+        this.remaining[top] = size == 0 ? EMPTY : size;
+        return this;
+    }
+
+    protected void beforeValue() throws IOException {
+        final int top = this.depth - 1;
+        if (top < 0) {
+            this.writer.startValue();
+            return;
+        }
+        if (this.objects[top]) {
+            if (!this.hasKey) {
+                throw new IllegalStateException("Expected a key");
+            }
+            this.hasKey = false;
+        } else {
+            this.consume(top);
+        }
+    }
+
+    protected UbjsonGenerator afterValue() throws IOException {
+        if (this.depth == 0) {
+            this.writer.drain();
+        }
+        return this;
+    }
+
+    private void consume(final int top) {
+        final int remaining = this.remaining[top];
+        if (remaining == 0 || remaining == EMPTY) {
+            throw new IllegalStateException("Container is full");
+        } else if (remaining > 0) {
+            this.remaining[top] = remaining - 1;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.writer.close();
+    }
+}
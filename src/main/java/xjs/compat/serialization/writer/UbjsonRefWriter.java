@@ -0,0 +1,126 @@
+package xjs.compat.serialization.writer;
+
+import xjs.compat.serialization.XjsCompat;
+import xjs.compat.serialization.util.UBReferences;
+import xjs.compat.serialization.util.UBShapeCache;
+import xjs.compat.serialization.util.UBTyping;
+import xjs.data.JsonObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A writer which replaces repeated strings and keys with references to
+ * their first occurrence. See {@link UBReferences} for a description of
+ * the format, which must be read by a {@link
+ * xjs.compat.serialization.parser.UbjsonRefParser}.
+ *
+ * <p>The table of strings is shared by every value written, and is only
+ * cleared when this writer is reset. The header is written along with
+ * the first value. Note that {@link #sizeOf} reports the size of a value
+ * without any references or header.
+ */
+public class UbjsonRefWriter extends UbjsonWriter {
+    protected final Map<String, Integer> strings = new HashMap<>();
+    protected boolean headerWritten;
+
+    public UbjsonRefWriter(final File file) throws IOException {
+        this(new FileOutputStream(file), XjsCompat.getDefaultUbTyping());
+    }
+
+    public UbjsonRefWriter(final File file, final UBTyping typing) throws IOException {
+        this(new FileOutputStream(file), typing);
+    }
+
+    public UbjsonRefWriter(final OutputStream output) {
+        this(output, XjsCompat.getDefaultUbTyping());
+    }
+
+    public UbjsonRefWriter(final OutputStream output, final UBTyping typing) {
+        this(output, typing, DEFAULT_BUFFER_SIZE);
+    }
+
+    public UbjsonRefWriter(final OutputStream output, final UBTyping typing, final int bufferSize) {
+        super(output, typing, bufferSize);
+    }
+
+    public UbjsonRefWriter(final WritableByteChannel channel) {
+        this(channel, XjsCompat.getDefaultUbTyping());
+    }
+
+    public UbjsonRefWriter(final WritableByteChannel channel, final UBTyping typing) {
+        this(channel, typing, DEFAULT_BUFFER_SIZE);
+    }
+
+    public UbjsonRefWriter(final WritableByteChannel channel, final UBTyping typing, final int bufferSize) {
+        super(channel, typing, bufferSize);
+    }
+
+    public UbjsonRefWriter(final ByteBuffer target) {
+        this(target, XjsCompat.getDefaultUbTyping());
+    }
+
+    public UbjsonRefWriter(final ByteBuffer target, final UBTyping typing) {
+        super(target, typing);
+    }
+
+    @Override
+    public UbjsonRefWriter reset(final OutputStream output, final UBTyping typing) {
+        super.reset(output, typing);
+        this.strings.clear();
+        this.headerWritten = false;
+        return this;
+    }
+
+    /**
+     * Shapes are never applied by this writer, since keys may need to be
+     * written as references. Any shape cache is simply ignored.
+     *
+     * @param object The object being written.
+     * @return <code>null</code>, always.
+     */
+    @Override
+    protected UBShapeCache.Shape getShape(final JsonObject object) {
+        return null;
+    }
+
+    @Override
+    protected void startValue() throws IOException {
+        super.startValue();
+        if (!this.headerWritten) {
+            this.writeHeader();
+            this.headerWritten = true;
+        }
+    }
+
+    protected void writeHeader() throws IOException {
+        this.ensure(2);
+        this.buffer.put(UBReferences.HEADER).put(UBReferences.VERSION);
+        if (this.target != null) {
+            // keep the header even if the first value does not fit
+            this.drain();
+        }
+    }
+
+    @Override
+    protected void writeRawString(final String value) throws IOException {
+        final Integer index = this.strings.get(value);
+        if (index != null) {
+            this.writeByte(UBReferences.REFERENCE);
+            this.writeInt(index);
+            return;
+        }
+        final int size = this.strings.size();
+        if (value.length() <= UBReferences.MAX_LENGTH
+                && UBReferences.isIndexed(utf8Length(value), size)) {
+            this.strings.put(value, size);
+        }
+        super.writeRawString(value);
+    }
+}
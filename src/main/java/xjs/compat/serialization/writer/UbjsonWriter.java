@@ -5,12 +5,28 @@ import xjs.data.JsonArray;
 import xjs.data.JsonContainer;
 import xjs.data.JsonObject;
 import xjs.data.JsonValue;
+import xjs.compat.serialization.util.UBCodec;
 import xjs.compat.serialization.util.UBMarker;
+import xjs.compat.serialization.util.UBNumberArray;
+import xjs.compat.serialization.util.UBShapeCache;
 import xjs.compat.serialization.util.UBTyping;
 import xjs.data.serialization.writer.ValueWriter;
 
 import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
 public class UbjsonWriter implements ValueWriter {
     protected static final int U_INT_8_MIN = 0;
@@ -21,9 +37,53 @@ public class UbjsonWriter implements ValueWriter {
     protected static final int INT_16_MIN = (1 << 16) / -2;
     protected static final int INT_32_MIN = Integer.MIN_VALUE;
     protected static final int INT_32_MAX = Integer.MAX_VALUE;
+    protected static final int MAX_STRING_BUFFER = 1 << 16;
+    protected static final int DEFAULT_BUFFER_SIZE = 8192;
+    protected static final int MIN_PLAN_SIZE = 64;
 
-    protected final OutputStream output;
-    protected final UBTyping typing;
+    private static final byte OPTIMIZED = 0;
+    private static final byte SIZED = 1;
+    private static final byte GENERIC = 2;
+
+    private static final Set<String> CONTAINER_HOOKS = Set.of(
+        "writeValue", "writeRawValue", "writeArray", "writeRawArray",
+        "writeSizedArray", "writeGenericArray", "writeOptimizedArray",
+        "writeObject", "writeRawObject", "writeSizedObject",
+        "writeGenericObject", "writeOptimizedObject");
+
+    private static final ClassValue<Boolean> ITERATIVE = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(final Class<?> type) {
+            for (Class<?> c = type; c != UbjsonWriter.class; c = c.getSuperclass()) {
+                for (final Method method : c.getDeclaredMethods()) {
+                    if (CONTAINER_HOOKS.contains(method.getName())) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    };
+
+    protected OutputStream output;
+    protected WritableByteChannel channel;
+    protected ByteBuffer target;
+    protected UBTyping typing;
+    protected ByteBuffer buffer;
+    protected final boolean iterative = ITERATIVE.get(this.getClass());
+    protected byte[] modes = new byte[16];
+    protected byte[] elementTypes = new byte[16];
+    protected int[] indices = new int[16];
+    protected Object[] containers = new Object[16];
+    protected int depth;
+    protected byte[] stringBuffer;
+    protected Map<JsonContainer, Byte> plans = new IdentityHashMap<>();
+    // plans are only kept while the same value is measured and then written
+    protected boolean retainPlans;
+    protected UBShapeCache shapeCache;
+    protected UBShapeCache.Shape[] shapes = new UBShapeCache.Shape[16];
+    protected String[] shapeKeys;
+    protected byte[] shapeKinds;
 
     public UbjsonWriter(final File file) throws IOException {
         this(new FileOutputStream(file), XjsCompat.getDefaultUbTyping());
@@ -33,82 +93,576 @@ public class UbjsonWriter implements ValueWriter {
         this(new FileOutputStream(file), typing);
     }
 
+    /**
+     * Opens a writer for the given file, optionally appending to its
+     * existing contents. Every call to {@link #write} appends one more
+     * record, which can be read back using {@link
+     * xjs.compat.serialization.parser.UbjsonParser#stream}.
+     *
+     * @param file   The file being written.
+     * @param typing The level of typing to apply.
+     * @param append Whether to append to the end of the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    public UbjsonWriter(final File file, final UBTyping typing, final boolean append) throws IOException {
+        this(new FileOutputStream(file, append), typing);
+    }
+
     public UbjsonWriter(final OutputStream output) {
         this(output, XjsCompat.getDefaultUbTyping());
     }
 
     public UbjsonWriter(final OutputStream output, final UBTyping typing) {
+        this(output, typing, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a writer which collects its output in a buffer of the
+     * given size. The buffer is drained after each value is written, or
+     * whenever it fills up.
+     *
+     * @param output     The destination for bytes.
+     * @param typing     The level of typing to apply.
+     * @param bufferSize The size of the output buffer in bytes.
+     */
+    public UbjsonWriter(final OutputStream output, final UBTyping typing, final int bufferSize) {
+        this.output = output;
+        this.typing = typing;
+        this.buffer = ByteBuffer.allocate(Math.max(bufferSize, Long.BYTES));
+    }
+
+    public UbjsonWriter(final WritableByteChannel channel) {
+        this(channel, XjsCompat.getDefaultUbTyping());
+    }
+
+    public UbjsonWriter(final WritableByteChannel channel, final UBTyping typing) {
+        this(channel, typing, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a writer which collects its output in a buffer of the
+     * given size before writing it to a channel. Byte runs larger than
+     * the buffer are written alongside it in a single gathering write,
+     * when the channel supports it.
+     *
+     * @param channel    The destination for bytes.
+     * @param typing     The level of typing to apply.
+     * @param bufferSize The size of the output buffer in bytes.
+     */
+    public UbjsonWriter(final WritableByteChannel channel, final UBTyping typing, final int bufferSize) {
+        this.channel = channel;
+        this.typing = typing;
+        this.buffer = ByteBuffer.allocate(Math.max(bufferSize, Long.BYTES));
+    }
+
+    public UbjsonWriter(final ByteBuffer target) {
+        this(target, XjsCompat.getDefaultUbTyping());
+    }
+
+    /**
+     * Constructs a writer which encodes directly into a heap or direct
+     * buffer, starting at its position. The position of the buffer is
+     * advanced only once each value is written completely. If the buffer
+     * runs out of space, a {@link BufferOverflowException} is thrown and
+     * the position is left unchanged.
+     *
+     * <p>See {@link #sizeOf} to allocate a buffer of the exact size.
+     *
+     * @param target The destination for bytes.
+     * @param typing The level of typing to apply.
+     */
+    public UbjsonWriter(final ByteBuffer target, final UBTyping typing) {
+        this.target = target;
+        this.typing = typing;
+        this.buffer = target.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Encodes a value into a new buffer of exactly the right size.
+     *
+     * @param value  The value being written.
+     * @param typing The level of typing to apply.
+     * @param direct Whether to allocate a direct buffer.
+     * @return A buffer containing the value, ready to be read.
+     */
+    public static ByteBuffer toByteBuffer(final JsonValue value, final UBTyping typing, final boolean direct) {
+        final UbjsonWriter measure = new UbjsonWriter(OutputStream.nullOutputStream(), typing, 0);
+        measure.retainPlans = true;
+        final long size = measure.sizeOf(value);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Value is too large for a buffer: " + size);
+        }
+        final ByteBuffer buffer = direct ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+        try {
+            // reuse each container's analysis from the first pass
+            final UbjsonWriter writer = new UbjsonWriter(buffer, typing);
+            writer.plans = measure.plans;
+            writer.retainPlans = true;
+            writer.write(value);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Prepares this writer to write to a new output stream, reusing its
+     * buffers. The previous output is not closed.
+     *
+     * @param output The new destination for bytes.
+     * @param typing The level of typing to apply.
+     * @return <code>this</code>, for method chaining.
+     */
+    public UbjsonWriter reset(final OutputStream output, final UBTyping typing) {
+        if (this.target != null) {
+            this.buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+        }
         this.output = output;
+        this.channel = null;
+        this.target = null;
         this.typing = typing;
+        this.buffer.clear();
+        this.plans.clear();
+        return this;
+    }
+
+    /**
+     * Enables reusing the encoded keys and layout of objects with the same
+     * shape through the given cache. Caches may be shared between writers
+     * to avoid re-encoding the same keys across many values.
+     *
+     * <p>Shapes are only applied when no container hooks are overridden.
+     *
+     * @param shapeCache The cache, or <code>null</code> to disable it.
+     * @return <code>this</code>, for method chaining.
+     */
+    public UbjsonWriter setShapeCache(final UBShapeCache shapeCache) {
+        this.shapeCache = shapeCache;
+        return this;
     }
 
     @Override
     public void write(final JsonValue value) throws IOException {
+        this.startValue();
         this.writeValue(value);
+        this.drain();
+    }
+
+    /**
+     * Writes a record or plain Java object directly as a UBJSON object,
+     * without building an intermediate {@link JsonObject}. See {@link
+     * UBCodec} for the classes which may be written this way.
+     *
+     * @param value The object being written.
+     * @throws IOException If the output throws an exception.
+     */
+    public void writeRecord(final Object value) throws IOException {
+        this.startValue();
+        this.writeTyped(value);
+        this.drain();
+    }
+
+    /**
+     * Computes the exact number of bytes a value would occupy if written
+     * with the given typing, without encoding it.
+     *
+     * @param value  The value being measured.
+     * @param typing The level of typing to apply.
+     * @return The size of the value in bytes.
+     */
+    public static long sizeOf(final JsonValue value, final UBTyping typing) {
+        return new UbjsonWriter(OutputStream.nullOutputStream(), typing, 0).sizeOf(value);
+    }
+
+    /**
+     * Computes the exact number of bytes a value would occupy if written
+     * by this writer, making the same choice of container layout and
+     * number types as {@link #write}.
+     *
+     * @param value The value being measured.
+     * @return The size of the value in bytes.
+     */
+    public long sizeOf(JsonValue value) {
+        final int bottom = this.depth;
+        long size = 0;
+        byte type = 0;
+        try {
+            while (true) {
+                if (value.isArray() || value.isObject()) {
+                    size += (type == 0 ? 1 : 0) + this.openSize(value);
+                } else {
+                    size += this.sizeOfScalar(value, type);
+                }
+                while (true) {
+                    if (this.depth == bottom) {
+                        return size;
+                    }
+                    final int top = this.depth - 1;
+                    final Object container = this.containers[top];
+                    final int index = this.indices[top]++;
+                    if (container instanceof JsonArray array) {
+                        if (index < array.size()) {
+                            value = array.getReference(index).getOnly();
+                            break;
+                        }
+                    } else {
+                        final Iterator<?> members = (Iterator<?>) container;
+                        if (members.hasNext()) {
+                            final JsonObject.Member member = (JsonObject.Member) members.next();
+                            size += sizeOfRawString(member.getKey());
+                            value = member.getOnly();
+                            break;
+                        }
+                    }
+                    if (this.modes[top] == GENERIC) {
+                        size++;
+                    }
+                    this.containers[top] = null;
+                    this.depth--;
+                }
+                type = this.modes[this.depth - 1] == OPTIMIZED ? this.elementTypes[this.depth - 1] : 0;
+            }
+        } finally {
+            while (this.depth > bottom) {
+                this.containers[--this.depth] = null;
+            }
+        }
+    }
+
+    /**
+     * Measures the header of a container, pushing it onto the stack if
+     * its elements must still be measured.
+     *
+     * @param value The array or object being measured.
+     * @return The size of the container, excluding its opening marker and
+     *         any elements left on the stack.
+     */
+    private long openSize(final JsonValue value) {
+        final JsonContainer container = value.isArray() ? value.asArray() : value.asObject();
+        final Object elements = value.isArray() ? container : value.asObject().iterator();
+        if (container.isEmpty()) {
+            return 1;
+        } else if (this.typing == UBTyping.WEAK) {
+            this.push(GENERIC, (byte) 0, elements);
+            return 0;
+        } else if (container instanceof UBNumberArray numbers && !numbers.isModified()) {
+            final byte type = numbers.getNumberType();
+            return 3 + sizeOfInt(numbers.size()) + (long) numbers.size() * this.getFixedSize(type);
+        }
+        final byte type = this.getCompressionType(container);
+        if (type != 0) {
+            this.push(OPTIMIZED, type, elements);
+            return 3 + sizeOfInt(container.size());
+        } else if (this.typing == UBTyping.COMPRESSED) {
+            this.push(GENERIC, (byte) 0, elements);
+            return 0;
+        }
+        this.push(SIZED, (byte) 0, elements);
+        return 1 + sizeOfInt(container.size());
+    }
+
+    protected long sizeOfScalar(final JsonValue value, final byte type) {
+        if (type != 0) {
+            final int size = this.getFixedSize(type);
+            return size >= 0 ? size : sizeOfRawString(value.asString());
+        }
+        return switch (value.getType()) {
+            case NUMBER -> sizeOfNumber(value.asDouble());
+            case STRING -> 1 + sizeOfRawString(value.asString());
+            default -> 1;
+        };
+    }
+
+    protected int getFixedSize(final byte type) {
+        return switch (type) {
+            case UBMarker.NULL, UBMarker.TRUE, UBMarker.FALSE -> 0;
+            case UBMarker.CHAR, UBMarker.INT8, UBMarker.U_INT8 -> 1;
+            case UBMarker.INT16 -> 2;
+            case UBMarker.INT32, UBMarker.FLOAT32 -> 4;
+            case UBMarker.INT64, UBMarker.FLOAT64 -> 8;
+            default -> -1;
+        };
+    }
+
+    protected static int sizeOfInt(final long value) {
+        if (value >= INT_8_MIN && value <= U_INT_8_MAX) {
+            return 2;
+        } else if (value >= INT_16_MIN && value <= INT_16_MAX) {
+            return 3;
+        } else if (value >= INT_32_MIN && value <= INT_32_MAX) {
+            return 5;
+        }
+        return 9;
+    }
+
+    protected static int sizeOfNumber(final double value) {
+        final long integer = (long) value;
+        if (integer == value) {
+            return sizeOfInt(integer);
+        }
+        return (float) value == value ? 5 : 9;
+    }
+
+    protected static long sizeOfRawString(final String value) {
+        final int length = utf8Length(value);
+        return sizeOfInt(length) + length;
+    }
+
+    /**
+     * Writes any buffered bytes and flushes the underlying output.
+     *
+     * @throws IOException If the output throws an exception.
+     */
+    public void flush() throws IOException {
+        this.drain();
+        if (this.output != null) {
+            this.output.flush();
+        }
+    }
+
+    protected void drain() throws IOException {
+        if (this.target != null) {
+            this.target.position(this.buffer.position());
+        } else {
+            this.spill();
+        }
+    }
+
+    /**
+     * Writes any buffered bytes to the output to make room for more. When
+     * writing into a target buffer, this does nothing, as its position is
+     * only published by {@link #drain} once a value is complete.
+     *
+     * @throws IOException If the output throws an exception.
+     */
+    protected void spill() throws IOException {
+        final ByteBuffer buffer = this.buffer;
+        if (this.target == null && buffer.position() > 0) {
+            if (this.channel != null) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    this.channel.write(buffer);
+                }
+            } else {
+                this.output.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+            }
+            buffer.clear();
+        }
+    }
+
+    protected void ensure(final int size) throws IOException {
+        if (this.buffer.remaining() < size) {
+            this.spill();
+            if (this.buffer.remaining() < size) {
+                throw new BufferOverflowException();
+            }
+        }
+    }
+
+    /**
+     * Makes room in the buffer for as many fixed-width values as will fit,
+     * up to the number requested.
+     *
+     * @param count The number of values to be written.
+     * @param width The size of each value in bytes.
+     * @return The number of values which may be written immediately.
+     * @throws IOException If the output throws an exception.
+     */
+    protected int reserve(final int count, final int width) throws IOException {
+        this.ensure(width);
+        return Math.min(count, this.buffer.remaining() / width);
+    }
+
+    /**
+     * Prepares to write a new top-level value. When writing into a target
+     * buffer, this discards any partial value left over from a failed
+     * write.
+     *
+     * @throws IOException If the output throws an exception.
+     */
+    protected void startValue() throws IOException {
+        if (this.target != null) {
+            this.buffer.position(this.target.position());
+        }
+    }
+
+    protected void advance(final int size) {
+        this.buffer.position(this.buffer.position() + size);
+    }
+
+    protected void writeByte(final int b) throws IOException {
+        final ByteBuffer buffer = this.buffer;
+        if (!buffer.hasRemaining()) {
+            this.spill();
+        }
+        buffer.put((byte) b);
+    }
+
+    protected void writeBytes(final byte[] bytes) throws IOException {
+        this.writeBytes(bytes, 0, bytes.length);
+    }
+
+    protected void writeBytes(final byte[] bytes, final int offset, final int length) throws IOException {
+        final ByteBuffer buffer = this.buffer;
+        if (length <= buffer.remaining()) {
+            buffer.put(bytes, offset, length);
+        } else if (length >= buffer.capacity() && this.target == null) {
+            // large writes bypass the buffer entirely
+            this.writeDirect(bytes, offset, length);
+        } else {
+            this.spill();
+            buffer.put(bytes, offset, length);
+        }
+    }
+
+    protected void writeDirect(final byte[] bytes, final int offset, final int length) throws IOException {
+        if (this.channel instanceof GatheringByteChannel gathering) {
+            final ByteBuffer buffer = this.buffer.flip();
+            final ByteBuffer payload = ByteBuffer.wrap(bytes, offset, length);
+            final ByteBuffer[] sources = { buffer, payload };
+            while (payload.hasRemaining()) {
+                gathering.write(sources);
+            }
+            buffer.clear();
+        } else if (this.channel != null) {
+            this.drain();
+            final ByteBuffer payload = ByteBuffer.wrap(bytes, offset, length);
+            while (payload.hasRemaining()) {
+                this.channel.write(payload);
+            }
+        } else {
+            this.drain();
+            this.output.write(bytes, offset, length);
+        }
+    }
+
+    protected <T> void writeRecord(final UBCodec<T> codec, final T value) throws IOException {
+        this.writeByte(UBMarker.OBJ_START);
+        final int size = codec.size();
+        final boolean sized = this.typing != UBTyping.WEAK && this.typing != UBTyping.COMPRESSED;
+        if (sized) {
+            this.writeByte(UBMarker.OPTIMIZED_SIZE);
+            this.writeInt(size);
+        }
+        for (int i = 0; i < size; i++) {
+            this.writeRawString(codec.getName(i));
+            this.writeTyped(codec.get(value, i));
+        }
+        if (!sized) {
+            this.writeByte(UBMarker.OBJ_END);
+        }
+    }
+
+    /**
+     * Writes a single Java object as the closest matching UBJSON value.
+     *
+     * @param value The object being written, which may be <code>null</code>.
+     * @throws IOException If the output throws an exception.
+     */
+    @SuppressWarnings("unchecked")
+    protected void writeTyped(final Object value) throws IOException {
+        if (value == null) {
+            this.writeNull();
+        } else if (value instanceof String s) {
+            this.writeString(s);
+        } else if (value instanceof Boolean b) {
+            this.writeBool(b);
+        } else if (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            this.writeInt(((Number) value).longValue());
+        } else if (value instanceof Number n) {
+            this.writeNumber(n.doubleValue());
+        } else if (value instanceof Character c) {
+            this.writeString(String.valueOf(c));
+        } else if (value instanceof Enum<?> e) {
+            this.writeString(e.name());
+        } else if (value instanceof JsonValue v) {
+            this.writeValue(v);
+        } else if (value instanceof Collection<?> c) {
+            this.writeTypedArray(c.size(), c);
+        } else if (value.getClass().isArray()) {
+            final int length = Array.getLength(value);
+            final Object[] elements = new Object[length];
+            for (int i = 0; i < length; i++) {
+                elements[i] = Array.get(value, i);
+            }
+            this.writeTypedArray(length, Arrays.asList(elements));
+        } else if (UBCodec.isBindable(value.getClass())) {
+            this.writeRecord((UBCodec<Object>) UBCodec.of(value.getClass()), value);
+        } else {
+            throw new IllegalArgumentException("Cannot write " + value.getClass().getName());
+        }
+    }
+
+    protected void writeTypedArray(final int size, final Iterable<?> elements) throws IOException {
+        this.writeByte(UBMarker.ARRAY_START);
+        final boolean sized = this.typing != UBTyping.WEAK && this.typing != UBTyping.COMPRESSED;
+        if (sized) {
+            this.writeByte(UBMarker.OPTIMIZED_SIZE);
+            this.writeInt(size);
+        }
+        for (final Object element : elements) {
+            this.writeTyped(element);
+        }
+        if (!sized) {
+            this.writeByte(UBMarker.ARRAY_END);
+        }
     }
 
     protected void writeNull() throws IOException {
-        this.output.write(UBMarker.NULL);
+        this.writeByte(UBMarker.NULL);
     }
 
     protected void writeBool(final boolean b) throws IOException {
-        this.output.write(b ? UBMarker.TRUE : UBMarker.FALSE);
+        this.writeByte(b ? UBMarker.TRUE : UBMarker.FALSE);
     }
 
     protected void writeInt8(final byte value) throws IOException {
-        this.output.write(UBMarker.INT8);
+        this.writeByte(UBMarker.INT8);
         this.writeRawInt8(value);
     }
 
     protected void writeRawInt8(final byte value) throws IOException {
-        this.output.write(value);
+        this.writeByte(value);
     }
 
     protected void writeUInt8(final short value) throws IOException {
-        this.output.write(UBMarker.U_INT8);
+        this.writeByte(UBMarker.U_INT8);
         this.writeRawUInt8(value);
     }
 
     protected void writeRawUInt8(final short value) throws IOException {
-        this.output.write(value & 0xFF);
+        this.writeByte(value & 0xFF);
     }
 
     protected void writeInt16(final short value) throws IOException {
-        this.output.write(UBMarker.INT16);
+        this.writeByte(UBMarker.INT16);
         this.writeRawInt16(value);
     }
 
     protected void writeRawInt16(final short value) throws IOException {
-        this.output.write(value >> 8);
-        this.output.write(value);
+        this.ensure(Short.BYTES);
+        this.buffer.putShort(value);
     }
 
     protected void writeInt32(final int value) throws IOException {
-        this.output.write(UBMarker.INT32);
+        this.writeByte(UBMarker.INT32);
         this.writeRawInt32(value);
     }
 
     protected void writeRawInt32(final int value) throws IOException {
-        this.output.write(value >> 24);
-        this.output.write(value >> 16);
-        this.output.write(value >> 8);
-        this.output.write(value);
+        this.ensure(Integer.BYTES);
+        this.buffer.putInt(value);
     }
 
     protected void writeInt64(final long value) throws IOException {
-        this.output.write(UBMarker.INT32);
+        this.writeByte(UBMarker.INT64);
         this.writeRawInt64(value);
     }
 
     protected void writeRawInt64(final long value) throws IOException {
-        this.output.write((byte) (0xFF & (value >> 56)));
-        this.output.write((byte) (0xFF & (value >> 48)));
-        this.output.write((byte) (0xFF & (value >> 40)));
-        this.output.write((byte) (0xFF & (value >> 32)));
-        this.output.write((byte) (0xFF & (value >> 24)));
-        this.output.write((byte) (0xFF & (value >> 16)));
-        this.output.write((byte) (0xFF & (value >> 8)));
-        this.output.write((byte) (0xFF & value));
+        this.ensure(Long.BYTES);
+        this.buffer.putLong(value);
     }
 
     protected void writeInt(final long value) throws IOException {
@@ -126,21 +680,23 @@ public class UbjsonWriter implements ValueWriter {
     }
 
     protected void writeFloat32(final float value) throws IOException {
-        this.output.write(UBMarker.FLOAT32);
+        this.writeByte(UBMarker.FLOAT32);
         this.writeRawFloat32(value);
     }
 
     protected void writeRawFloat32(final float value) throws IOException {
-        this.writeRawInt32(Float.floatToIntBits(value));
+        this.ensure(Float.BYTES);
+        this.buffer.putFloat(value);
     }
 
     protected void writeFloat64(final double value) throws IOException {
-        this.output.write(UBMarker.FLOAT64);
+        this.writeByte(UBMarker.FLOAT64);
         this.writeRawFloat64(value);
     }
 
     protected void writeRawFloat64(final double value) throws IOException {
-        this.writeRawInt64(Double.doubleToLongBits(value));
+        this.ensure(Double.BYTES);
+        this.buffer.putDouble(value);
     }
 
     protected void writeFloat(final double value) throws IOException {
@@ -161,26 +717,116 @@ public class UbjsonWriter implements ValueWriter {
     }
 
     protected void writeString(final String value) throws IOException {
-        this.output.write(UBMarker.STRING);
+        this.writeByte(UBMarker.STRING);
         this.writeRawString(value);
     }
 
     protected void writeRawString(final String value) throws IOException {
-        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
-        this.writeInt(bytes.length);
-        this.output.write(bytes);
+        final int length = utf8Length(value);
+        this.writeInt(length);
+        final ByteBuffer buffer = this.buffer;
+        if (length <= buffer.capacity() && buffer.hasArray()) {
+            this.ensure(length);
+            final int end = encode(value, buffer.array(), buffer.arrayOffset() + buffer.position());
+            buffer.position(end - buffer.arrayOffset());
+        } else if (length > MAX_STRING_BUFFER) {
+            this.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        } else {
+            byte[] bytes = this.stringBuffer;
+            if (bytes == null || bytes.length < length) {
+                this.stringBuffer = bytes = new byte[length];
+            }
+            encode(value, bytes, 0);
+            this.writeBytes(bytes, 0, length);
+        }
+    }
+
+    /**
+     * Counts the number of bytes needed to encode a string as UTF-8,
+     * without encoding it. Unpaired surrogates are counted as a single
+     * replacement byte, as in {@link String#getBytes}.
+     *
+     * @param value The string being encoded.
+     * @return The length of the string in bytes.
+     */
+    protected static int utf8Length(final String value) {
+        final int length = value.length();
+        int size = length;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            } else if (c < 0x800) {
+                size++;
+            } else if (!Character.isSurrogate(c)) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                size += 2;
+                i++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Encodes a string as UTF-8 directly into the given array, which must
+     * have room for {@link #utf8Length} bytes.
+     *
+     * @param value  The string being encoded.
+     * @param bytes  The destination array.
+     * @param offset The index of the first byte to write.
+     * @return The index after the last byte written.
+     */
+    protected static int encode(final String value, final byte[] bytes, int offset) {
+        final int length = value.length();
+        int i = 0;
+        // ASCII prefix
+        while (i < length) {
+            final char c = value.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            bytes[offset++] = (byte) c;
+            i++;
+        }
+        for (; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[offset++] = (byte) (0xC0 | (c >> 6));
+                bytes[offset++] = (byte) (0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                bytes[offset++] = (byte) (0xE0 | (c >> 12));
+                bytes[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[offset++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, value.charAt(++i));
+                bytes[offset++] = (byte) (0xF0 | (cp >> 18));
+                bytes[offset++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                bytes[offset++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                bytes[offset++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                bytes[offset++] = '?';
+            }
+        }
+        return offset;
     }
 
     protected void writeArray(final JsonArray array) throws IOException {
-        this.output.write(UBMarker.ARRAY_START);
+        this.writeByte(UBMarker.ARRAY_START);
         this.writeRawArray(array);
     }
 
     protected void writeRawArray(final JsonArray array) throws IOException {
         if (array.isEmpty()) {
-            this.output.write(UBMarker.ARRAY_END);
+            this.writeByte(UBMarker.ARRAY_END);
         } else if (this.typing == UBTyping.WEAK) {
             this.writeGenericArray(array);
+        } else if (array instanceof UBNumberArray numbers && !numbers.isModified()) {
+            this.writeNumberArray(numbers);
         } else {
             final byte type = this.getCompressionType(array);
             if (type != 0) {
@@ -194,7 +840,7 @@ public class UbjsonWriter implements ValueWriter {
     }
 
     protected void writeSizedArray(final JsonArray array) throws IOException {
-        this.output.write(UBMarker.OPTIMIZED_SIZE);
+        this.writeByte(UBMarker.OPTIMIZED_SIZE);
         this.writeInt(array.size());
         for (final JsonValue value : array.visitAll()) {
             this.writeValue(value);
@@ -205,24 +851,104 @@ public class UbjsonWriter implements ValueWriter {
         for (final JsonValue value : array.visitAll()) {
             this.writeValue(value);
         }
-        this.output.write(UBMarker.ARRAY_END);
+        this.writeByte(UBMarker.ARRAY_END);
     }
 
     protected void writeOptimizedArray(final JsonArray array, final byte type) throws IOException {
-        this.output.write(UBMarker.OPTIMIZED_TYPE);
-        this.output.write(type);
-        this.output.write(UBMarker.OPTIMIZED_SIZE);
+        this.writeByte(UBMarker.OPTIMIZED_TYPE);
+        this.writeByte(type);
+        this.writeByte(UBMarker.OPTIMIZED_SIZE);
         this.writeInt(array.size());
         for (final JsonValue value : array.visitAll()) {
             this.writeRawValue(value, type);
         }
     }
 
+    protected void writeNumberArray(final UBNumberArray array) throws IOException {
+        final byte type = array.getNumberType();
+        final Object data = array.getData();
+        this.writeByte(UBMarker.OPTIMIZED_TYPE);
+        this.writeByte(type);
+        this.writeByte(UBMarker.OPTIMIZED_SIZE);
+        this.writeInt(array.size());
+        switch (type) {
+            case UBMarker.INT8, UBMarker.U_INT8 -> this.writeBytes((byte[]) data);
+            case UBMarker.INT16 -> {
+                final short[] values = (short[]) data;
+                for (int i = 0; i < values.length; ) {
+                    final int n = this.reserve(values.length - i, Short.BYTES);
+                    this.buffer.asShortBuffer().put(values, i, n);
+                    this.advance(n * Short.BYTES);
+                    i += n;
+                }
+            }
+            case UBMarker.INT32 -> {
+                final int[] values = (int[]) data;
+                for (int i = 0; i < values.length; ) {
+                    final int n = this.reserve(values.length - i, Integer.BYTES);
+                    this.buffer.asIntBuffer().put(values, i, n);
+                    this.advance(n * Integer.BYTES);
+                    i += n;
+                }
+            }
+            case UBMarker.INT64 -> {
+                final long[] values = (long[]) data;
+                for (int i = 0; i < values.length; ) {
+                    final int n = this.reserve(values.length - i, Long.BYTES);
+                    this.buffer.asLongBuffer().put(values, i, n);
+                    this.advance(n * Long.BYTES);
+                    i += n;
+                }
+            }
+            case UBMarker.FLOAT32 -> {
+                final float[] values = (float[]) data;
+                for (int i = 0; i < values.length; ) {
+                    final int n = this.reserve(values.length - i, Float.BYTES);
+                    this.buffer.asFloatBuffer().put(values, i, n);
+                    this.advance(n * Float.BYTES);
+                    i += n;
+                }
+            }
+            case UBMarker.FLOAT64 -> {
+                final double[] values = (double[]) data;
+                for (int i = 0; i < values.length; ) {
+                    final int n = this.reserve(values.length - i, Double.BYTES);
+                    this.buffer.asDoubleBuffer().put(values, i, n);
+                    this.advance(n * Double.BYTES);
+                    i += n;
+                }
+            }
+            default -> throw new IllegalStateException("Not a number type: " + (char) type);
+        }
+    }
+
+    /**
+     * Decides whether a container may be written with a single element
+     * type. When plans are retained, as when measuring and then writing
+     * the same value, the result for large containers is cached until
+     * this writer is reset.
+     *
+     * @param container The array or object being written.
+     * @return The type of every element, or 0 if it must be written with
+     *         a marker per element.
+     */
     protected byte getCompressionType(final JsonContainer container) {
         final int minSize = this.typing == UBTyping.STRONG ? 1 : 2;
         if (container.size() < minSize) {
             return 0;
+        } else if (!this.retainPlans || container.size() < MIN_PLAN_SIZE) {
+            return this.analyze(container);
+        }
+        final Byte plan = this.plans.get(container);
+        if (plan != null) {
+            return plan;
         }
+        final byte type = this.analyze(container);
+        this.plans.put(container, type);
+        return type;
+    }
+
+    private byte analyze(final JsonContainer container) {
         final byte type = this.getContainerType(container);
         if (this.typing != UBTyping.STRONG) {
             if (this.isSingleByte(type) && container.size() < 5) {
@@ -263,12 +989,14 @@ public class UbjsonWriter implements ValueWriter {
     protected byte getNumberType(final JsonContainer container) {
         double max = Integer.MIN_VALUE;
         double min = Integer.MAX_VALUE;
-        for (final JsonValue value : container.visitAll()) {
+        for (int i = 0; i < container.size(); i++) {
+            final JsonValue value = container.getReference(i).getOnly();
             if (!value.isNumber()) {
                 return 0;
             }
-            max = Double.max(max, value.asDouble());
-            min = Double.min(min, value.asDouble());
+            final double number = value.asDouble();
+            max = Math.max(max, number);
+            min = Math.min(min, number);
         }
         return this.getNumberType(min, max);
     }
@@ -305,13 +1033,13 @@ public class UbjsonWriter implements ValueWriter {
     }
 
     protected void writeObject(final JsonObject object) throws IOException {
-        this.output.write(UBMarker.OBJ_START);
+        this.writeByte(UBMarker.OBJ_START);
         this.writeRawObject(object);
     }
 
     protected void writeRawObject(final JsonObject object) throws IOException {
         if (object.isEmpty()) {
-            this.output.write(UBMarker.OBJ_END);
+            this.writeByte(UBMarker.OBJ_END);
         } else if (this.typing == UBTyping.WEAK) {
             this.writeGenericObject(object);
         } else {
@@ -327,7 +1055,7 @@ public class UbjsonWriter implements ValueWriter {
     }
 
     protected void writeSizedObject(final JsonObject object) throws IOException {
-        this.output.write(UBMarker.OPTIMIZED_SIZE);
+        this.writeByte(UBMarker.OPTIMIZED_SIZE);
         this.writeInt(object.size());
         for (final JsonObject.Member member : object) {
             this.writeRawString(member.getKey());
@@ -340,13 +1068,13 @@ public class UbjsonWriter implements ValueWriter {
             this.writeRawString(member.getKey());
             this.writeValue(member.getOnly());
         }
-        this.output.write(UBMarker.OBJ_END);
+        this.writeByte(UBMarker.OBJ_END);
     }
 
     protected void writeOptimizedObject(final JsonObject object, final byte type) throws IOException {
-        this.output.write(UBMarker.OPTIMIZED_TYPE);
-        this.output.write(type);
-        this.output.write(UBMarker.OPTIMIZED_SIZE);
+        this.writeByte(UBMarker.OPTIMIZED_TYPE);
+        this.writeByte(type);
+        this.writeByte(UBMarker.OPTIMIZED_SIZE);
         this.writeInt(object.size());
         for (final JsonObject.Member member : object) {
             this.writeRawString(member.getKey());
@@ -357,8 +1085,15 @@ public class UbjsonWriter implements ValueWriter {
     protected void writeValue(final JsonValue value) throws IOException {
         switch (value.getType()) {
             case NUMBER -> this.writeNumber(value.asDouble());
-            case ARRAY -> this.writeArray(value.asArray());
-            case OBJECT -> this.writeObject(value.asObject());
+            case ARRAY, OBJECT -> {
+                if (this.iterative) {
+                    this.writeTree(value, (byte) 0);
+                } else if (value.isArray()) {
+                    this.writeArray(value.asArray());
+                } else {
+                    this.writeObject(value.asObject());
+                }
+            }
             case BOOLEAN -> this.writeBool(value.asBoolean());
             case STRING -> this.writeString(value.asString());
             default -> this.writeNull();
@@ -392,10 +1127,18 @@ public class UbjsonWriter implements ValueWriter {
                 this.writeRawString(value.asString());
                 break;
             case UBMarker.ARRAY_START:
-                this.writeRawArray(value.asArray());
+                if (this.iterative) {
+                    this.writeTree(value, type);
+                } else {
+                    this.writeRawArray(value.asArray());
+                }
                 break;
             case UBMarker.OBJ_START:
-                this.writeRawObject(value.asObject());
+                if (this.iterative) {
+                    this.writeTree(value, type);
+                } else {
+                    this.writeRawObject(value.asObject());
+                }
                 break;
             case UBMarker.NULL:
             case UBMarker.TRUE:
@@ -406,8 +1149,273 @@ public class UbjsonWriter implements ValueWriter {
         }
     }
 
+    /**
+     * Writes a container and everything inside of it without recursion,
+     * tracking each level of nesting on an explicit stack. This is used
+     * whenever a subclass does not override any of the container hooks,
+     * and produces the same output as {@link #writeArray} and {@link
+     * #writeObject}.
+     *
+     * @param value The outermost container.
+     * @param type  The type of the container, if its marker is implied,
+     *              or else 0.
+     * @throws IOException If the output throws an exception.
+     */
+    protected void writeTree(JsonValue value, byte type) throws IOException {
+        final int bottom = this.depth;
+        try {
+            while (true) {
+                if (value.isArray()) {
+                    if (type == 0) {
+                        this.writeByte(UBMarker.ARRAY_START);
+                    }
+                    this.openArray(value.asArray());
+                } else if (value.isObject()) {
+                    if (type == 0) {
+                        this.writeByte(UBMarker.OBJ_START);
+                    }
+                    this.openObject(value.asObject());
+                } else if (type == 0) {
+                    this.writeValue(value);
+                } else {
+                    this.writeRawValue(value, type);
+                }
+                while (true) {
+                    if (this.depth == bottom) {
+                        return;
+                    }
+                    final int top = this.depth - 1;
+                    final Object container = this.containers[top];
+                    final int index = this.indices[top]++;
+                    if (container instanceof JsonArray array) {
+                        if (index < array.size()) {
+                            value = array.getReference(index).getOnly();
+                            break;
+                        }
+                    } else {
+                        final Iterator<?> members = (Iterator<?>) container;
+                        if (members.hasNext()) {
+                            final JsonObject.Member member = (JsonObject.Member) members.next();
+                            final UBShapeCache.Shape shape = this.shapes[top];
+                            if (shape != null) {
+                                this.writeBytes(shape.keyBytes(), shape.keyOffset(index), shape.keyLength(index));
+                            } else {
+                                this.writeRawString(member.getKey());
+                            }
+                            value = member.getOnly();
+                            break;
+                        }
+                    }
+                    if (this.modes[top] == GENERIC) {
+                        this.writeByte(container instanceof JsonArray ? UBMarker.ARRAY_END : UBMarker.OBJ_END);
+                    }
+                    this.containers[top] = null;
+                    this.shapes[top] = null;
+                    this.depth--;
+                }
+                type = this.modes[this.depth - 1] == OPTIMIZED ? this.elementTypes[this.depth - 1] : 0;
+            }
+        } finally {
+            while (this.depth > bottom) {
+                this.containers[--this.depth] = null;
+                this.shapes[this.depth] = null;
+            }
+        }
+    }
+
+    private void openArray(final JsonArray array) throws IOException {
+        if (array.isEmpty()) {
+            this.writeByte(UBMarker.ARRAY_END);
+        } else if (this.typing == UBTyping.WEAK) {
+            this.push(GENERIC, (byte) 0, array);
+        } else if (array instanceof UBNumberArray numbers && !numbers.isModified()) {
+            this.writeNumberArray(numbers);
+        } else {
+            final byte type = this.getCompressionType(array);
+            if (type != 0) {
+                this.writeOptimizedHeader(type, array.size());
+                this.push(OPTIMIZED, type, array);
+            } else if (this.typing == UBTyping.COMPRESSED) {
+                this.push(GENERIC, (byte) 0, array);
+            } else {
+                this.writeByte(UBMarker.OPTIMIZED_SIZE);
+                this.writeInt(array.size());
+                this.push(SIZED, (byte) 0, array);
+            }
+        }
+    }
+
+    private void openObject(final JsonObject object) throws IOException {
+        final UBShapeCache.Shape shape;
+        if (object.isEmpty()) {
+            this.writeByte(UBMarker.OBJ_END);
+        } else if (this.shapeCache != null && (shape = this.getShape(object)) != null) {
+            this.openShape(object, shape);
+        } else if (this.typing == UBTyping.WEAK) {
+            this.push(GENERIC, (byte) 0, object.iterator());
+        } else {
+            final byte type = this.getCompressionType(object);
+            if (type != 0) {
+                this.writeOptimizedHeader(type, object.size());
+                this.push(OPTIMIZED, type, object.iterator());
+            } else if (this.typing == UBTyping.COMPRESSED) {
+                this.push(GENERIC, (byte) 0, object.iterator());
+            } else {
+                this.writeByte(UBMarker.OPTIMIZED_SIZE);
+                this.writeInt(object.size());
+                this.push(SIZED, (byte) 0, object.iterator());
+            }
+        }
+    }
+
+    /**
+     * Begins writing an object whose shape is already known, deciding its
+     * layout exactly as {@link #openObject} would. Its keys are copied from
+     * the shape as each member is written.
+     *
+     * @param object The object being written.
+     * @param shape  The shape of the object.
+     * @throws IOException If the output throws an exception.
+     */
+    private void openShape(final JsonObject object, final UBShapeCache.Shape shape) throws IOException {
+        final byte type;
+        if (this.typing == UBTyping.WEAK) {
+            type = 0;
+        } else {
+            type = shape.numeric() ? this.getCompressionType(object) : shape.type();
+        }
+        if (type != 0) {
+            this.writeOptimizedHeader(type, object.size());
+            this.push(OPTIMIZED, type, object.iterator());
+        } else if (this.typing == UBTyping.WEAK || this.typing == UBTyping.COMPRESSED) {
+            this.push(GENERIC, (byte) 0, object.iterator());
+        } else {
+            this.writeByte(UBMarker.OPTIMIZED_SIZE);
+            this.writeInt(object.size());
+            this.push(SIZED, (byte) 0, object.iterator());
+        }
+        this.shapes[this.depth - 1] = shape;
+    }
+
+    /**
+     * Finds or creates the shape of an object in the shape cache.
+     *
+     * @param object The object being written.
+     * @return Its shape, or <code>null</code> if it is too large to cache
+     *         or has not been seen often enough.
+     */
+    protected UBShapeCache.Shape getShape(final JsonObject object) {
+        final UBShapeCache cache = this.shapeCache;
+        final int size = object.size();
+        if (size > cache.getMaxSize()) {
+            return null;
+        }
+        String[] keys = this.shapeKeys;
+        byte[] kinds = this.shapeKinds;
+        if (keys == null || keys.length < size) {
+            this.shapeKeys = keys = new String[Math.max(size, 16)];
+            this.shapeKinds = kinds = new byte[keys.length];
+        }
+        int i = 0;
+        boolean numeric = true;
+        for (final JsonObject.Member member : object) {
+            keys[i] = member.getKey();
+            kinds[i] = getKind(member.getOnly());
+            numeric &= kinds[i] == UBShapeCache.NUMBER;
+            i++;
+        }
+        final UBShapeCache.Shape cached = cache.get(this.typing, keys, kinds, size);
+        if (cached != null) {
+            return cached;
+        } else if (!cache.admit(this.typing, keys, kinds, size)) {
+            return null;
+        }
+        final boolean analyze = !numeric && this.typing != UBTyping.WEAK;
+        final int[] offsets = new int[size + 1];
+        final UBShapeCache.Shape shape = new UBShapeCache.Shape(
+            this.typing,
+            Arrays.copyOf(keys, size),
+            Arrays.copyOf(kinds, size),
+            analyze ? this.getCompressionType(object) : 0,
+            numeric,
+            encodeKeys(keys, size, offsets),
+            offsets);
+        cache.put(shape);
+        return shape;
+    }
+
+    private static byte[] encodeKeys(final String[] keys, final int size, final int[] offsets) {
+        final int[] lengths = new int[size];
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            lengths[i] = utf8Length(keys[i]);
+            total += sizeOfInt(lengths[i]) + lengths[i];
+        }
+        final byte[] bytes = new byte[total];
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int i = 0; i < size; i++) {
+            putLength(buffer, lengths[i]);
+            buffer.position(encode(keys[i], bytes, buffer.position()));
+            offsets[i + 1] = buffer.position();
+        }
+        return bytes;
+    }
+
+    // matches the markers chosen by writeInt for a non-negative length
+    private static void putLength(final ByteBuffer buffer, final int length) {
+        if (length <= U_INT_8_MAX) {
+            buffer.put(UBMarker.U_INT8).put((byte) length);
+        } else if (length <= INT_16_MAX) {
+            buffer.put(UBMarker.INT16).putShort((short) length);
+        } else {
+            buffer.put(UBMarker.INT32).putInt(length);
+        }
+    }
+
+    protected static byte getKind(final JsonValue value) {
+        return switch (value.getType()) {
+            case NUMBER -> UBShapeCache.NUMBER;
+            case STRING -> UBMarker.STRING;
+            case BOOLEAN -> UBMarker.TRUE;
+            case ARRAY -> UBMarker.ARRAY_START;
+            case OBJECT -> UBMarker.OBJ_START;
+            default -> UBMarker.NULL;
+        };
+    }
+
+    private void writeOptimizedHeader(final byte type, final int size) throws IOException {
+        this.writeByte(UBMarker.OPTIMIZED_TYPE);
+        this.writeByte(type);
+        this.writeByte(UBMarker.OPTIMIZED_SIZE);
+        this.writeInt(size);
+    }
+
+    private void push(final byte mode, final byte type, final Object container) {
+        final int top = this.depth++;
+        if (top >= this.modes.length) {
+            final int capacity = Math.max(top + 1, this.modes.length * 2);
+            this.modes = Arrays.copyOf(this.modes, capacity);
+            this.elementTypes = Arrays.copyOf(this.elementTypes, capacity);
+            this.indices = Arrays.copyOf(this.indices, capacity);
+            this.containers = Arrays.copyOf(this.containers, capacity);
+            this.shapes = Arrays.copyOf(this.shapes, capacity);
+        }
+        this.modes[top] = mode;
+        this.elementTypes[top] = type;
+        this.indices[top] = 0;
+        this.containers[top] = container;
+    }
+
     @Override
     public void close() throws IOException {
-        this.output.close();
+        try {
+            this.drain();
+        } finally {
+            if (this.output != null) {
+                this.output.close();
+            } else if (this.channel != null) {
+                this.channel.close();
+            }
+        }
     }
 }
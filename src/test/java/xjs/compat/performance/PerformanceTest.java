@@ -107,6 +107,20 @@ public class PerformanceTest {
         }
     }
 
+    @Enabled(false)
+    @Benchmark
+    @Fork(2)
+    @Threads(4)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public JsonValue ubjsonParsingSample_fromBytes() {
+        try (final UbjsonParser parser = new UbjsonParser(SIMPLE_UBJSON_SAMPLE)) {
+            return parser.parse();
+        } catch (final IOException ignored) {
+            throw new AssertionError("unreachable");
+        }
+    }
+
     @Enabled(false)
     @Benchmark
     @Fork(2)
@@ -0,0 +1,67 @@
+package xjs.compat.serialization.parser;
+
+import org.junit.jupiter.api.Test;
+import xjs.compat.serialization.TestUtils;
+import xjs.compat.serialization.util.UBLimits;
+import xjs.compat.serialization.util.UBNumberArray;
+import xjs.data.Json;
+import xjs.data.JsonObject;
+import xjs.data.JsonValue;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static xjs.compat.serialization.util.UBMarker.ARRAY_END;
+import static xjs.compat.serialization.util.UBMarker.ARRAY_START;
+import static xjs.compat.serialization.util.UBMarker.OBJ_END;
+import static xjs.compat.serialization.util.UBMarker.OBJ_START;
+import static xjs.compat.serialization.util.UBMarker.OPTIMIZED_SIZE;
+import static xjs.compat.serialization.util.UBMarker.OPTIMIZED_TYPE;
+import static xjs.compat.serialization.util.UBMarker.U_INT8;
+
+public final class LazyUbjsonParserTest {
+
+    private static final byte[] SAMPLE = TestUtils.getBytes(
+        OBJ_START, OPTIMIZED_SIZE, U_INT8, (byte) 2,
+            U_INT8, (byte) 1, "a",
+            ARRAY_START, OPTIMIZED_TYPE, U_INT8, OPTIMIZED_SIZE, U_INT8, (byte) 3,
+                (byte) 1, (byte) 2, (byte) 3,
+            U_INT8, (byte) 1, "b",
+            OBJ_START,
+                U_INT8, (byte) 1, "c", ARRAY_START, U_INT8, (byte) 4, ARRAY_END,
+            OBJ_END);
+
+    @Test
+    void parse_defersNestedContainers() throws IOException {
+        final JsonObject object = new LazyUbjsonParser(SAMPLE).parse().asObject();
+        final var reference = object.getReference("b");
+        assertInstanceOf(LazyUbjsonParser.LazyReference.class, reference);
+        assertFalse(((LazyUbjsonParser.LazyReference) reference).isDecoded());
+
+        assertTrue(object.get("b").asObject().get("c").matches(Json.array(4)));
+        assertTrue(((LazyUbjsonParser.LazyReference) reference).isDecoded());
+    }
+
+    @Test
+    void parse_matchesEagerParser() throws IOException {
+        final JsonValue expected = new UbjsonParser(SAMPLE).parse();
+        final JsonValue actual = new LazyUbjsonParser(SAMPLE).parse();
+        assertTrue(actual.matches(expected));
+    }
+
+    @Test
+    void parse_enforcesDepthLimit_likeEagerParser() {
+        final UBLimits limits = UBLimits.NONE.withMaxDepth(2);
+        assertThrows(IOException.class, () -> new UbjsonParser(SAMPLE).setLimits(limits).parse());
+        assertThrows(IOException.class, () -> new LazyUbjsonParser(SAMPLE).setLimits(limits).parse());
+    }
+
+    @Test
+    void parse_decodesNumberArrays_whenEnabled() throws IOException {
+        final JsonObject object = new LazyUbjsonParser(SAMPLE).setNumberArrays(true).parse().asObject();
+        assertInstanceOf(UBNumberArray.class, object.get("a"));
+    }
+}
@@ -0,0 +1,118 @@
+package xjs.compat.serialization.parser;
+
+import org.junit.jupiter.api.Test;
+import xjs.compat.serialization.util.UBLimits;
+import xjs.compat.serialization.util.UBTyping;
+import xjs.compat.serialization.writer.UbjsonWriter;
+import xjs.data.Json;
+import xjs.data.JsonValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class NonBlockingUbjsonParserTest {
+
+    private static final JsonValue SAMPLE = Json.object()
+        .add("a", Json.array(1, 2, 3, 4, 5))
+        .add("b", Json.array().add(Json.object().add("c", "hello")).add(3.14).add(true))
+        .add("d", Json.object())
+        .add("e", -40000);
+
+    @Test
+    void feed_emitsValue_fromSingleBytes() throws IOException {
+        for (final UBTyping typing : UBTyping.values()) {
+            final byte[] bytes = write(typing, SAMPLE);
+            final List<JsonValue> values = new ArrayList<>();
+            final NonBlockingUbjsonParser parser = new NonBlockingUbjsonParser(values::add);
+            for (final byte b : bytes) {
+                assertTrue(values.isEmpty());
+                parser.feed(new byte[] { b }, 0, 1);
+            }
+            parser.endOfInput();
+            assertEquals(1, values.size());
+            assertTrue(values.get(0).matches(SAMPLE), typing.toString());
+        }
+    }
+
+    @Test
+    void feed_emitsConsecutiveValues_acrossChunks() throws IOException {
+        final byte[] bytes = write(UBTyping.BALANCED, SAMPLE, Json.value("x"), SAMPLE);
+        final List<JsonValue> values = new ArrayList<>();
+        final NonBlockingUbjsonParser parser = new NonBlockingUbjsonParser(values::add);
+        for (int i = 0; i < bytes.length; i += 7) {
+            parser.feed(bytes, i, Math.min(7, bytes.length - i));
+        }
+        assertEquals(3, values.size());
+        assertTrue(values.get(2).matches(SAMPLE));
+        assertTrue(parser.isIdle());
+    }
+
+    @Test
+    void endOfInput_throws_whenValueIsIncomplete() throws IOException {
+        final byte[] bytes = write(UBTyping.BALANCED, SAMPLE);
+        final NonBlockingUbjsonParser parser = new NonBlockingUbjsonParser(v -> {});
+        parser.feed(bytes, 0, bytes.length - 1);
+        assertFalse(parser.isIdle());
+        assertThrows(IOException.class, parser::endOfInput);
+    }
+
+    @Test
+    void feed_rejectsLongString_beforeAllocating() throws IOException {
+        final byte[] prefix = { 'S', 'l', 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff };
+        final NonBlockingUbjsonParser limited = new NonBlockingUbjsonParser(v -> {})
+            .setLimits(UBLimits.NONE.withMaxStringBytes(1024));
+        assertThrows(IOException.class, () -> limited.feed(prefix, 0, prefix.length));
+
+        final NonBlockingUbjsonParser unlimited = new NonBlockingUbjsonParser(v -> {});
+        unlimited.feed(prefix, 0, prefix.length);
+        unlimited.feed(new byte[100], 0, 100);
+        assertTrue(unlimited.partial.length < 1024);
+    }
+
+    @Test
+    void feed_enforcesContainerLimits() throws IOException {
+        final UBLimits limits = UBLimits.NONE.withMaxDepth(2).withMaxContainerSize(3);
+        final byte[] deep = write(UBTyping.WEAK, Json.array().add(Json.array().add(Json.array())));
+        final byte[] large = write(UBTyping.WEAK, Json.array(1, 2, 3, 4));
+        final byte[] sized = write(UBTyping.BALANCED, Json.array("a", "b", "c", "d"));
+        final byte[] valid = write(UBTyping.WEAK, Json.array().add(Json.array(1, 2, 3)));
+
+        for (final byte[] bytes : List.of(deep, large, sized)) {
+            final NonBlockingUbjsonParser parser = new NonBlockingUbjsonParser(v -> {}).setLimits(limits);
+            assertThrows(IOException.class, () -> parser.feed(bytes, 0, bytes.length));
+        }
+        final List<JsonValue> values = new ArrayList<>();
+        new NonBlockingUbjsonParser(values::add).setLimits(limits).feed(valid, 0, valid.length);
+        assertEquals(1, values.size());
+    }
+
+    @Test
+    void feed_enforcesTotalLimit_perValue() throws IOException {
+        final byte[] bytes = write(UBTyping.BALANCED, Json.value("abcdef"), Json.value("abcdef"));
+        final List<JsonValue> values = new ArrayList<>();
+        final NonBlockingUbjsonParser parser = new NonBlockingUbjsonParser(values::add)
+            .setLimits(UBLimits.NONE.withMaxTotalBytes(bytes.length / 2));
+        parser.feed(bytes, 0, bytes.length);
+        assertEquals(2, values.size());
+
+        final NonBlockingUbjsonParser strict = new NonBlockingUbjsonParser(v -> {})
+            .setLimits(UBLimits.NONE.withMaxTotalBytes(bytes.length / 2 - 1));
+        assertThrows(IOException.class, () -> strict.feed(bytes, 0, bytes.length));
+    }
+
+    private static byte[] write(final UBTyping typing, final JsonValue... values) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final UbjsonWriter writer = new UbjsonWriter(output, typing);
+        for (final JsonValue value : values) {
+            writer.write(value);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,106 @@
+package xjs.compat.serialization.parser;
+
+import org.junit.jupiter.api.Test;
+import xjs.compat.serialization.util.UBLimits;
+import xjs.compat.serialization.util.UBTyping;
+import xjs.compat.serialization.writer.UbjsonWriter;
+import xjs.data.Json;
+import xjs.data.JsonArray;
+import xjs.data.JsonObject;
+import xjs.data.JsonValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class ParallelUbjsonParserTest {
+
+    @Test
+    void parse_matchesSequentialParser_withSizedContainers() throws IOException {
+        assertParsesEqually(UBTyping.BALANCED);
+    }
+
+    @Test
+    void parse_matchesSequentialParser_withGenericContainers() throws IOException {
+        assertParsesEqually(UBTyping.WEAK);
+    }
+
+    @Test
+    void parse_matchesSequentialParser_withFixedWidthContainers() throws IOException {
+        final JsonArray doubles = new JsonArray();
+        final JsonArray ints = new JsonArray();
+        final JsonObject object = new JsonObject();
+        for (int i = 0; i < 100; i++) {
+            doubles.add(i + 0.5);
+            ints.add(i * 100_000);
+            object.add("k" + i, i * 1000);
+        }
+        final byte[] bytes = write(new JsonArray().add(doubles).add(ints).add(object), UBTyping.COMPRESSED);
+        assertTrue(parallel(bytes).parse().matches(new UbjsonParser(bytes).parse()));
+
+        final byte[] truncated = Arrays.copyOf(bytes, 100);
+        assertThrows(IOException.class, () -> parallel(truncated).parse());
+    }
+
+    @Test
+    void parse_decodesSmallGenericContainers_sequentially() throws IOException {
+        final byte[] bytes = write(Json.object().add("a", new JsonArray().add(1).add("x")).add("b", 2), UBTyping.WEAK);
+        assertTrue(parallel(bytes).parse().matches(new UbjsonParser(bytes).parse()));
+    }
+
+    @Test
+    void parse_measuresLimits_fromEachValue() throws IOException {
+        final JsonArray value = new JsonArray();
+        for (int i = 0; i < 10; i++) {
+            value.add(Json.array("item" + i));
+        }
+        final byte[] one = write(value, UBTyping.BALANCED);
+        final byte[] bytes = Arrays.copyOf(one, one.length * 2);
+        System.arraycopy(one, 0, bytes, one.length, one.length);
+
+        final ParallelUbjsonParser parser = parallel(bytes);
+        parser.setLimits(UBLimits.NONE.withMaxTotalBytes(one.length));
+        assertTrue(parser.parse().matches(value));
+        assertTrue(parser.parse().matches(value));
+    }
+
+    @Test
+    void parse_propagatesErrors() throws IOException {
+        final byte[] bytes = write(sample(), UBTyping.BALANCED);
+        final byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+        assertThrows(IOException.class, () -> parallel(truncated).parse());
+    }
+
+    private static void assertParsesEqually(final UBTyping typing) throws IOException {
+        final byte[] bytes = write(sample(), typing);
+        final JsonValue expected = new UbjsonParser(bytes).parse();
+        final JsonValue actual = parallel(bytes).parse();
+        assertTrue(actual.matches(expected));
+    }
+
+    private static ParallelUbjsonParser parallel(final byte[] bytes) {
+        return new ParallelUbjsonParser(ByteBuffer.wrap(bytes), ForkJoinPool.commonPool(), 4);
+    }
+
+    private static JsonArray sample() {
+        final JsonArray array = new JsonArray();
+        for (int i = 0; i < 100; i++) {
+            array.add(Json.object()
+                .add("id", i)
+                .add("name", "item" + i)
+                .add("tags", Json.array(1, 2, 3, 4, 5)));
+        }
+        return array;
+    }
+
+    private static byte[] write(final JsonValue value, final UBTyping typing) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new UbjsonWriter(output, typing).write(value);
+        return output.toByteArray();
+    }
+}
@@ -1,20 +1,43 @@
 package xjs.compat.serialization.parser;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xjs.compat.serialization.util.UBKeyCache;
+import xjs.compat.serialization.util.UBLimits;
+import xjs.compat.serialization.util.UBNumberArray;
+import xjs.compat.serialization.util.UBSummary;
 import xjs.data.Json;
+import xjs.data.JsonArray;
 import xjs.data.JsonLiteral;
 import xjs.data.JsonValue;
 import xjs.compat.serialization.TestUtils;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static xjs.compat.serialization.util.UBMarker.ARRAY_START;
 import static xjs.compat.serialization.util.UBMarker.ARRAY_END;
 import static xjs.compat.serialization.util.UBMarker.FALSE;
 import static xjs.compat.serialization.util.UBMarker.FLOAT32;
 import static xjs.compat.serialization.util.UBMarker.FLOAT64;
 import static xjs.compat.serialization.util.UBMarker.INT32;
+import static xjs.compat.serialization.util.UBMarker.INT64;
 import static xjs.compat.serialization.util.UBMarker.OBJ_START;
 import static xjs.compat.serialization.util.UBMarker.OBJ_END;
 import static xjs.compat.serialization.util.UBMarker.OPTIMIZED_SIZE;
@@ -68,6 +91,20 @@ public final class UbjsonParserTest {
         assertParseEquals(Json.value(s), STRING, U_INT8, len, s);
     }
 
+    @Test
+    void parse_readsNonAsciiString() {
+        final String s = "caf\u00e9 \u4e16\u754c \ud83d\ude00";
+        final byte len = (byte) s.getBytes(StandardCharsets.UTF_8).length;
+        assertParseEquals(Json.value(s), STRING, U_INT8, len, s);
+    }
+
+    @Test
+    void parse_readsNonAsciiKey() {
+        final String key = "cl\u00e9";
+        final byte len = (byte) key.getBytes(StandardCharsets.UTF_8).length;
+        assertParseEquals(Json.object().add(key, 1), OBJ_START, U_INT8, len, key, U_INT8, (byte) 1, OBJ_END);
+    }
+
     @Test
     void parse_readsEmptyArray() {
         assertParseEquals(Json.array(), ARRAY_START, ARRAY_END);
@@ -96,6 +133,20 @@ public final class UbjsonParserTest {
             ARRAY_END);
     }
 
+    @Test
+    void parse_readsGenericArray_recursively() {
+        assertParseEquals(
+            Json.array()
+                .add(Json.array(1, 2))
+                .add(Json.array().add(Json.array(3)))
+                .add(4),
+            ARRAY_START,
+                ARRAY_START, U_INT8, (byte) 1, U_INT8, (byte) 2, ARRAY_END,
+                ARRAY_START, ARRAY_START, U_INT8, (byte) 3, ARRAY_END, ARRAY_END,
+                U_INT8, (byte) 4,
+            ARRAY_END);
+    }
+
     @Test
     void parse_readsCompressedArray_recursively() {
         assertParseEquals(
@@ -173,6 +224,336 @@ public final class UbjsonParserTest {
             OBJ_END);
     }
 
+    @Test
+    void parse_readsFromByteArray_withOffset() throws IOException {
+        final byte[] bytes = TestUtils.getBytes(NULL, INT32, Integer.MAX_VALUE, NULL);
+        final JsonValue actual = new UbjsonParser(bytes, 1, 5).parse();
+        assertEquals(Integer.MAX_VALUE, actual.asInt());
+    }
+
+    @Test
+    void parse_readsAcrossBufferBoundaries() throws IOException {
+        final String s = "Hello, World!";
+        final byte len = (byte) s.getBytes(StandardCharsets.UTF_8).length;
+        final byte[] bytes = TestUtils.getBytes(
+            ARRAY_START,
+                FLOAT64, 3.14,
+                INT32, Integer.MAX_VALUE,
+                STRING, U_INT8, len, s,
+            ARRAY_END);
+        final InputStream slow = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+        final JsonValue actual = new UbjsonParser(slow, 8).parse();
+        assertTrue(actual.matches(Json.array().add(3.14).add(Integer.MAX_VALUE).add(s)));
+    }
+
+    @Test
+    void parse_readsMappedFile_acrossRegions(@TempDir final Path dir) throws IOException {
+        final Path file = dir.resolve("test.ubj");
+        Files.write(file, TestUtils.getBytes(
+            ARRAY_START,
+                FLOAT64, 3.14,
+                INT32, Integer.MAX_VALUE,
+            ARRAY_END));
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        final UbjsonParser parser = new UbjsonParser(channel) {
+            @Override
+            protected ByteBuffer map(final long offset, final int minSize) throws IOException {
+                final long size = Math.min(this.channel.size() - offset, Math.max(minSize, 3));
+                return this.channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            }
+        };
+        try (parser) {
+            assertTrue(parser.parse().matches(Json.array().add(3.14).add(Integer.MAX_VALUE)));
+        }
+    }
+
+    @Test
+    void extract_readsNestedValue() throws IOException {
+        final byte[] bytes = TestUtils.getBytes(
+            OBJ_START,
+                U_INT8, (byte) 1, "x", ARRAY_START, U_INT8, (byte) 9, ARRAY_END,
+                U_INT8, (byte) 1, "a",
+                OBJ_START, OPTIMIZED_SIZE, U_INT8, (byte) 1,
+                    U_INT8, (byte) 1, "b",
+                    ARRAY_START, OPTIMIZED_TYPE, INT32, OPTIMIZED_SIZE, U_INT8, (byte) 3,
+                        1, 2, 3,
+            OBJ_END);
+        assertEquals(3, UbjsonParser.extract(bytes, "a.b[2]").asInt());
+        assertTrue(UbjsonParser.extract(bytes, "x").matches(Json.array(9)));
+    }
+
+    @Test
+    void extract_returnsNull_whenAbsent() throws IOException {
+        final byte[] bytes = TestUtils.getBytes(
+            ARRAY_START, OPTIMIZED_SIZE, U_INT8, (byte) 1,
+                OBJ_START, U_INT8, (byte) 1, "a", TRUE, OBJ_END);
+        assertNull(UbjsonParser.extract(bytes, "[1]"));
+        assertNull(UbjsonParser.extract(bytes, "[0].b"));
+        assertNull(UbjsonParser.extract(bytes, "[0].a.c"));
+        assertTrue(UbjsonParser.extract(bytes, "[0].a").asBoolean());
+    }
+
+    @Test
+    void extract_rejectsNegativeIndex() {
+        final byte[] typed = TestUtils.getBytes(
+            ARRAY_START, OPTIMIZED_TYPE, INT32, OPTIMIZED_SIZE, U_INT8, (byte) 3, 1, 2, 3);
+        final byte[] generic = TestUtils.getBytes(
+            ARRAY_START, U_INT8, (byte) 5, U_INT8, (byte) 6, ARRAY_END);
+        assertThrows(IllegalArgumentException.class, () -> UbjsonParser.extract(typed, "[-1]"));
+        assertThrows(IllegalArgumentException.class, () -> UbjsonParser.extract(generic, "[-1]"));
+    }
+
+    @Test
+    void extract_enforcesLimits() throws IOException {
+        final byte[] deep = TestUtils.getBytes(
+            ARRAY_START, ARRAY_START, ARRAY_START, U_INT8, (byte) 1, ARRAY_END, ARRAY_END, ARRAY_END);
+        final byte[] corrupt = TestUtils.getBytes(
+            OBJ_START, OPTIMIZED_SIZE, INT32, Integer.MAX_VALUE, U_INT8, (byte) 1, "a", TRUE);
+        final UBLimits limits = UBLimits.NONE.withMaxDepth(2);
+        assertThrows(IOException.class, () -> new UbjsonParser(deep).setLimits(limits).extract("[0][0][0]"));
+        assertEquals(1, new UbjsonParser(deep).setLimits(limits.withMaxDepth(3)).extract("[0][0][0]").asInt());
+        assertThrows(IOException.class, () -> UbjsonParser.extract(corrupt, "a"));
+    }
+
+    @Test
+    void extract_matchesKeys_fromStream() throws IOException {
+        final byte[] bytes = TestUtils.getBytes(
+            OBJ_START,
+                U_INT8, (byte) 3, "abc", U_INT8, (byte) 1,
+                U_INT8, (byte) 3, "abd", U_INT8, (byte) 2,
+            OBJ_END);
+        assertEquals(2, new UbjsonParser(new ByteArrayInputStream(bytes), 8).extract("abd").asInt());
+        assertEquals(1, new UbjsonParser(new ByteArrayInputStream(bytes), 8).extract("abc").asInt());
+    }
+
+    @Test
+    void parse_internsKeys_withKeyCache() throws IOException {
+        final byte[] bytes = TestUtils.getBytes(
+            ARRAY_START,
+                OBJ_START, U_INT8, (byte) 3, "key", NULL, OBJ_END,
+                OBJ_START, U_INT8, (byte) 3, "key", NULL, OBJ_END,
+            ARRAY_END);
+        final JsonArray array =
+            new UbjsonParser(bytes).setKeyCache(new UBKeyCache()).parse().asArray();
+        final String first = array.get(0).asObject().iterator().next().getKey();
+        final String second = array.get(1).asObject().iterator().next().getKey();
+        assertEquals("key", first);
+        assertSame(first, second);
+    }
+
+    @Test
+    void keyCache_replacesEntries_onlyAfterRepeatedMisses() {
+        final UBKeyCache cache = new UBKeyCache(1, 64);
+        final byte[] a = "a".getBytes(StandardCharsets.UTF_8);
+        final byte[] b = "b".getBytes(StandardCharsets.UTF_8);
+        final String first = cache.get(a, 0, 1);
+        assertEquals("b", cache.get(b, 0, 1));
+        assertSame(first, cache.get(a, 0, 1));
+
+        cache.get(b, 0, 1);
+        final String second = cache.get(b, 0, 1);
+        assertSame(second, cache.get(b, 0, 1));
+    }
+
+    @Test
+    void parse_readsNumberArrays_inBulk() throws IOException {
+        final byte[] bytes = TestUtils.getBytes(
+            ARRAY_START, OPTIMIZED_TYPE, INT32, OPTIMIZED_SIZE, U_INT8, (byte) 5,
+                1, 2, 3, 4, Integer.MAX_VALUE);
+        final JsonValue actual =
+            new UbjsonParser(new ByteArrayInputStream(bytes), 10).setNumberArrays(true).parse();
+        assertInstanceOf(UBNumberArray.class, actual);
+        assertTrue(actual.matches(Json.array(1, 2, 3, 4, Integer.MAX_VALUE)));
+    }
+
+    @Test
+    void readBatch_readsConsecutiveValues() throws IOException {
+        final byte[] bytes = TestUtils.getBytes(TRUE, U_INT8, (byte) 1, ARRAY_START, ARRAY_END, NULL);
+        final UbjsonParser parser = new UbjsonParser(new ByteArrayInputStream(bytes));
+        assertEquals(3, parser.readBatch(3).size());
+        assertEquals(1, parser.readBatch(3).size());
+        assertTrue(parser.readBatch(3).isEmpty());
+    }
+
+    @Test
+    void stream_readsEveryValue() {
+        final byte[] bytes = TestUtils.getBytes(U_INT8, (byte) 1, U_INT8, (byte) 2, U_INT8, (byte) 3);
+        final long sum = new UbjsonParser(bytes).stream().mapToLong(JsonValue::asLong).sum();
+        assertEquals(6, sum);
+    }
+
+    @Test
+    void reset_reusesParser_forNewInput() throws IOException {
+        final UbjsonParser parser =
+            new UbjsonParser(new ByteArrayInputStream(TestUtils.getBytes(INT32, Integer.MAX_VALUE)));
+        assertEquals(Integer.MAX_VALUE, parser.parse().asInt());
+        parser.reset(new ByteArrayInputStream(TestUtils.getBytes(U_INT8, (byte) 1)));
+        assertEquals(1, parser.parse().asInt());
+        final byte[] bytes = TestUtils.getBytes(U_INT8, (byte) 2);
+        assertEquals(2, parser.reset(bytes, 0, bytes.length).parse().asInt());
+        parser.reset(new ByteArrayInputStream(TestUtils.getBytes(U_INT8, (byte) 3)));
+        assertEquals(3, parser.parse().asInt());
+    }
+
+    @Test
+    void parse_rejectsLongString_beforeReading() {
+        final UbjsonParser parser =
+            new UbjsonParser(new ByteArrayInputStream(TestUtils.getBytes(STRING, INT32, Integer.MAX_VALUE)))
+                .setLimits(UBLimits.NONE.withMaxStringBytes(1024));
+        assertThrows(IOException.class, parser::parse);
+    }
+
+    @Test
+    void parse_rejectsCorruptSize_beforeAllocating() {
+        final byte[] bytes = TestUtils.getBytes(
+            ARRAY_START, OPTIMIZED_TYPE, FLOAT64, OPTIMIZED_SIZE, INT32, Integer.MAX_VALUE, 0.0);
+        assertThrows(IOException.class, () -> new UbjsonParser(bytes).setNumberArrays(true).parse());
+        assertThrows(IOException.class, () -> new UbjsonParser(bytes).parse());
+    }
+
+    @Test
+    void parse_rejectsLargeContainer() {
+        final byte[] bytes = TestUtils.getBytes(
+            ARRAY_START, U_INT8, (byte) 1, U_INT8, (byte) 2, U_INT8, (byte) 3, ARRAY_END);
+        final UbjsonParser parser = new UbjsonParser(bytes).setLimits(UBLimits.NONE.withMaxContainerSize(2));
+        assertThrows(IOException.class, parser::parse);
+    }
+
+    @Test
+    void parse_rejectsDeepNesting() throws IOException {
+        final byte[] bytes = TestUtils.getBytes(
+            ARRAY_START, ARRAY_START, ARRAY_START, ARRAY_END, ARRAY_END, ARRAY_END);
+        assertTrue(new UbjsonParser(bytes).setLimits(UBLimits.NONE.withMaxDepth(3)).parse() instanceof JsonArray);
+        assertThrows(IOException.class, () -> new UbjsonParser(bytes).setLimits(UBLimits.NONE.withMaxDepth(2)).parse());
+    }
+
+    @Test
+    void parse_rejectsLargeValue_fromStream() {
+        final byte[] bytes = TestUtils.getBytes(ARRAY_START, OPTIMIZED_TYPE, FLOAT64, OPTIMIZED_SIZE, U_INT8, (byte) 3,
+            1.0, 2.0, 3.0);
+        final UbjsonParser parser = new UbjsonParser(new ByteArrayInputStream(bytes), 8)
+            .setLimits(UBLimits.NONE.withMaxTotalBytes(16));
+        assertThrows(IOException.class, parser::parse);
+    }
+
+    @Test
+    void parse_rejectsLargeValue_fromMemory() {
+        final byte[] bytes = TestUtils.getBytes(ARRAY_START,
+            FLOAT64, 1.0, FLOAT64, 2.0, FLOAT64, 3.0, ARRAY_START, ARRAY_END, ARRAY_END);
+        final UBLimits limits = UBLimits.NONE.withMaxTotalBytes(16);
+        assertThrows(IOException.class, () -> new UbjsonParser(bytes).setLimits(limits).parse());
+        assertThrows(IOException.class, () -> new UbjsonParser(ByteBuffer.wrap(bytes)).setLimits(limits).parse());
+        assertThrows(IOException.class, () -> new UbjsonParser(bytes).setLimits(limits).validate());
+        assertDoesNotThrow(() -> new UbjsonParser(bytes).setLimits(limits.withMaxTotalBytes(bytes.length)).parse());
+    }
+
+    @Test
+    void parse_readsLargeString_inChunks() throws IOException {
+        final String text = "\u00e9abc\u4e16".repeat(5000);
+        final byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        final byte[] bytes = TestUtils.getBytes(STRING, INT32, utf8.length, text);
+        final InputStream slow = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(final byte[] b, final int off, final int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        assertEquals(text, new UbjsonParser(slow, 10).parse().asString());
+    }
+
+    @Test
+    void parse_readsDeepNesting_withoutRecursion() throws IOException {
+        final int depth = 100_000;
+        final byte[] bytes = new byte[depth * 2 + 2];
+        Arrays.fill(bytes, 0, depth, ARRAY_START);
+        bytes[depth] = U_INT8;
+        bytes[depth + 1] = 7;
+        Arrays.fill(bytes, depth + 2, bytes.length, ARRAY_END);
+        JsonValue value = new UbjsonParser(bytes).parse();
+        for (int i = 0; i < depth; i++) {
+            value = value.asArray().get(0);
+        }
+        assertEquals(7, value.asInt());
+    }
+
+    @Test
+    void validate_summarizesValue() throws IOException {
+        final byte[] bytes = TestUtils.getBytes(
+            OBJ_START,
+                U_INT8, (byte) 1, "a", ARRAY_START, OPTIMIZED_TYPE, U_INT8, OPTIMIZED_SIZE, U_INT8, (byte) 3,
+                    (byte) 1, (byte) 2, (byte) 3,
+                U_INT8, (byte) 1, "b", ARRAY_START, STRING, U_INT8, (byte) 2, "\u00e9", NULL, ARRAY_END,
+            OBJ_END, TRUE);
+        final UbjsonParser parser = new UbjsonParser(new ByteArrayInputStream(bytes));
+        final UBSummary summary = parser.validate();
+        assertEquals(OBJ_START, summary.type());
+        assertEquals(bytes.length - 1, summary.length());
+        assertEquals(2, summary.depth());
+        assertEquals(2, summary.size());
+        assertEquals(8, summary.values());
+        assertEquals(3, summary.containers());
+        assertEquals(JsonLiteral.jsonTrue(), parser.parse());
+    }
+
+    @Test
+    void validate_countsDepth_ofTypedArrays() throws IOException {
+        final byte[] root = TestUtils.getBytes(
+            ARRAY_START, OPTIMIZED_TYPE, U_INT8, OPTIMIZED_SIZE, U_INT8, (byte) 2, (byte) 1, (byte) 2);
+        final byte[] nested = TestUtils.getBytes(
+            OBJ_START,
+                U_INT8, (byte) 1, "a", ARRAY_START, OPTIMIZED_TYPE, U_INT8, OPTIMIZED_SIZE, U_INT8, (byte) 2,
+                    (byte) 1, (byte) 2,
+            OBJ_END);
+        assertEquals(1, new UbjsonParser(root).validate().depth());
+        assertEquals(2, new UbjsonParser(nested).validate().depth());
+    }
+
+    @Test
+    void validate_rejectsMalformedUtf8() {
+        final byte[] bytes = TestUtils.getBytes(STRING, U_INT8, (byte) 2, (byte) 0xC3, (byte) 0x28);
+        assertThrows(IOException.class, () -> new UbjsonParser(bytes).validate());
+    }
+
+    @Test
+    void validate_rejectsUnbalancedContainer() {
+        final byte[] bytes = TestUtils.getBytes(ARRAY_START, NULL, OBJ_END);
+        assertThrows(IOException.class, () -> new UbjsonParser(bytes).validate());
+    }
+
+    @Test
+    void parseRecord_bindsDirectlyToRecord() throws IOException {
+        final byte[] bytes = TestUtils.getBytes(
+            OBJ_START,
+                U_INT8, (byte) 4, "name", STRING, U_INT8, (byte) 1, "x",
+                U_INT8, (byte) 5, "extra", ARRAY_START, NULL, ARRAY_END,
+                U_INT8, (byte) 4, "size", U_INT8, (byte) 3,
+                U_INT8, (byte) 5, "sizes", ARRAY_START, OPTIMIZED_TYPE, U_INT8, OPTIMIZED_SIZE, U_INT8, (byte) 2,
+                    (byte) 1, (byte) 2,
+                U_INT8, (byte) 5, "child", OBJ_START, U_INT8, (byte) 4, "name", STRING, U_INT8, (byte) 1, "y", OBJ_END,
+            OBJ_END);
+        final Item item = new UbjsonParser(bytes).parseRecord(Item.class);
+        assertEquals(new Item("x", 3, List.of(1L, 2L), new Item("y", 0, null, null)), item);
+    }
+
+    @Test
+    void parseRecord_rejectsLossyNumbers() {
+        final byte[] large = TestUtils.getBytes(OBJ_START, U_INT8, (byte) 1, "v", INT64, 5_000_000_000L, OBJ_END);
+        final byte[] fraction = TestUtils.getBytes(OBJ_START, U_INT8, (byte) 1, "v", FLOAT64, 3.7, OBJ_END);
+        final byte[] whole = TestUtils.getBytes(OBJ_START, U_INT8, (byte) 1, "v", FLOAT64, 3.0, OBJ_END);
+        assertThrows(IOException.class, () -> new UbjsonParser(large).parseRecord(Value.class));
+        assertThrows(IOException.class, () -> new UbjsonParser(fraction).parseRecord(Value.class));
+        assertEquals(new Value(3), assertDoesNotThrow(() -> new UbjsonParser(whole).parseRecord(Value.class)));
+    }
+
+    record Item(String name, int size, List<Long> sizes, Item child) {}
+
+    record Value(int v) {}
+
     private static void assertParseEquals(final JsonValue expected, final Object... bytes) {
         final ByteArrayInputStream input = 
             new ByteArrayInputStream(TestUtils.getBytes(bytes));
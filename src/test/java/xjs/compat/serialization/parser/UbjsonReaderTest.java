@@ -0,0 +1,142 @@
+package xjs.compat.serialization.parser;
+
+import org.junit.jupiter.api.Test;
+import xjs.compat.serialization.TestUtils;
+import xjs.compat.serialization.util.UBEvent;
+import xjs.compat.serialization.util.UBLimits;
+import xjs.data.Json;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static xjs.compat.serialization.util.UBMarker.ARRAY_END;
+import static xjs.compat.serialization.util.UBMarker.ARRAY_START;
+import static xjs.compat.serialization.util.UBMarker.FALSE;
+import static xjs.compat.serialization.util.UBMarker.FLOAT64;
+import static xjs.compat.serialization.util.UBMarker.INT16;
+import static xjs.compat.serialization.util.UBMarker.INT32;
+import static xjs.compat.serialization.util.UBMarker.OBJ_END;
+import static xjs.compat.serialization.util.UBMarker.OBJ_START;
+import static xjs.compat.serialization.util.UBMarker.OPTIMIZED_SIZE;
+import static xjs.compat.serialization.util.UBMarker.OPTIMIZED_TYPE;
+import static xjs.compat.serialization.util.UBMarker.STRING;
+import static xjs.compat.serialization.util.UBMarker.U_INT8;
+
+public final class UbjsonReaderTest {
+
+    @Test
+    void nextEvent_readsGenericArray() throws IOException {
+        final UbjsonReader reader = reader(
+            ARRAY_START,
+                U_INT8, (byte) 1,
+                FLOAT64, 1.5,
+                STRING, U_INT8, (byte) 2, "hi",
+                FALSE,
+            ARRAY_END);
+        assertEquals(UBEvent.START_ARRAY, reader.nextEvent());
+        assertEquals(UBEvent.INTEGER, reader.nextEvent());
+        assertEquals(1, reader.readLong());
+        assertEquals(UBEvent.FLOAT, reader.nextEvent());
+        assertEquals(1.5, reader.readDouble());
+        assertEquals(UBEvent.STRING, reader.nextEvent());
+        assertEquals("hi", reader.readString());
+        assertEquals(UBEvent.BOOLEAN, reader.nextEvent());
+        assertFalse(reader.readBoolean());
+        assertEquals(UBEvent.END_ARRAY, reader.nextEvent());
+        assertEquals(UBEvent.END_DOCUMENT, reader.nextEvent());
+    }
+
+    @Test
+    void nextEvent_readsOptimizedArray() throws IOException {
+        final UbjsonReader reader = reader(
+            ARRAY_START, OPTIMIZED_TYPE, INT16, OPTIMIZED_SIZE, U_INT8, (byte) 3,
+                (short) -1, (short) 1, (short) 128);
+        long sum = 0;
+        assertEquals(UBEvent.START_ARRAY, reader.nextEvent());
+        assertEquals(3, reader.remaining());
+        while (reader.nextEvent() != UBEvent.END_ARRAY) {
+            sum += reader.readLong();
+        }
+        assertEquals(128, sum);
+    }
+
+    @Test
+    void nextEvent_readsKeys() throws IOException {
+        final UbjsonReader reader = reader(
+            OBJ_START, OPTIMIZED_SIZE, U_INT8, (byte) 2,
+                U_INT8, (byte) 1, "a", U_INT8, (byte) 1,
+                U_INT8, (byte) 1, "b", OBJ_START, OBJ_END);
+        assertEquals(UBEvent.START_OBJECT, reader.nextEvent());
+        assertEquals(UBEvent.KEY, reader.nextEvent());
+        assertEquals("a", reader.readString());
+        assertEquals(UBEvent.INTEGER, reader.nextEvent());
+        assertEquals(UBEvent.KEY, reader.nextEvent());
+        assertEquals(UBEvent.START_OBJECT, reader.nextEvent());
+        assertEquals(UBEvent.END_OBJECT, reader.nextEvent());
+        assertEquals(UBEvent.END_OBJECT, reader.nextEvent());
+        assertEquals(UBEvent.END_DOCUMENT, reader.nextEvent());
+    }
+
+    @Test
+    void skipValue_skipsNestedContainers() throws IOException {
+        final UbjsonReader reader = reader(
+            ARRAY_START,
+                OBJ_START,
+                    U_INT8, (byte) 1, "a", ARRAY_START, U_INT8, (byte) 1, ARRAY_END,
+                OBJ_END,
+                U_INT8, (byte) 2,
+            ARRAY_END);
+        assertEquals(UBEvent.START_ARRAY, reader.nextEvent());
+        assertEquals(UBEvent.START_OBJECT, reader.nextEvent());
+        reader.skipValue();
+        assertEquals(UBEvent.INTEGER, reader.nextEvent());
+        assertEquals(2, reader.readLong());
+        assertEquals(UBEvent.END_ARRAY, reader.nextEvent());
+    }
+
+    @Test
+    void readValue_decodesCurrentContainer() throws IOException {
+        final UbjsonReader reader = reader(
+            ARRAY_START,
+                ARRAY_START, OPTIMIZED_TYPE, U_INT8, OPTIMIZED_SIZE, U_INT8, (byte) 2,
+                    (byte) 1, (byte) 2,
+                U_INT8, (byte) 3,
+            ARRAY_END);
+        assertEquals(UBEvent.START_ARRAY, reader.nextEvent());
+        assertEquals(UBEvent.START_ARRAY, reader.nextEvent());
+        assertTrue(reader.readValue().matches(Json.array(1, 2)));
+        assertEquals(1, reader.depth());
+        assertEquals(UBEvent.INTEGER, reader.nextEvent());
+        assertEquals(3, reader.readLong());
+    }
+
+    @Test
+    void nextEvent_enforcesDepthLimit() throws IOException {
+        final byte[] bytes = TestUtils.getBytes(ARRAY_START, ARRAY_START, ARRAY_START, ARRAY_END, ARRAY_END, ARRAY_END);
+        final UbjsonReader reader =
+            new UbjsonReader(new UbjsonParser(bytes).setLimits(UBLimits.NONE.withMaxDepth(2)));
+        assertEquals(UBEvent.START_ARRAY, reader.nextEvent());
+        assertEquals(UBEvent.START_ARRAY, reader.nextEvent());
+        assertThrows(IOException.class, reader::nextEvent);
+
+        final UbjsonReader shallow =
+            new UbjsonReader(new UbjsonParser(bytes).setLimits(UBLimits.NONE.withMaxDepth(3)));
+        for (int i = 0; i < 6; i++) {
+            shallow.nextEvent();
+        }
+        assertEquals(UBEvent.END_DOCUMENT, shallow.nextEvent());
+    }
+
+    @Test
+    void nextEvent_rejectsCountLargerThanInput() {
+        final UbjsonReader reader = reader(ARRAY_START, OPTIMIZED_SIZE, INT32, Integer.MAX_VALUE, U_INT8, (byte) 1);
+        assertThrows(IOException.class, reader::nextEvent);
+    }
+
+    private static UbjsonReader reader(final Object... bytes) {
+        return new UbjsonReader(TestUtils.getBytes(bytes));
+    }
+}
@@ -0,0 +1,133 @@
+package xjs.compat.serialization.parser;
+
+import org.junit.jupiter.api.Test;
+import xjs.compat.serialization.util.UBShapeCache;
+import xjs.compat.serialization.util.UBTyping;
+import xjs.compat.serialization.writer.UbjsonRefWriter;
+import xjs.compat.serialization.writer.UbjsonWriter;
+import xjs.data.Json;
+import xjs.data.JsonArray;
+import xjs.data.JsonValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class UbjsonRefParserTest {
+
+    @Test
+    void parse_readsRepeatedStrings() throws IOException {
+        final JsonValue value = repetitive(100);
+        for (final UBTyping typing : UBTyping.values()) {
+            assertEquals(value.toString(), new UbjsonRefParser(write(typing, value)).parse().toString(), typing.name());
+        }
+    }
+
+    @Test
+    void write_isSmallerThanPlainUbjson() throws IOException {
+        final JsonValue value = repetitive(100);
+        final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        new UbjsonWriter(plain, UBTyping.BALANCED).write(value);
+
+        assertTrue(write(UBTyping.BALANCED, value).length < plain.size() / 2);
+    }
+
+    @Test
+    void parse_sharesTable_acrossValues() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final UbjsonRefWriter writer = new UbjsonRefWriter(output, UBTyping.BALANCED);
+        writer.write(repetitive(2));
+        writer.write(repetitive(3));
+
+        final UbjsonRefParser parser = new UbjsonRefParser(new ByteArrayInputStream(output.toByteArray()), 16);
+        assertEquals(List.of(repetitive(2), repetitive(3)).toString(), parser.readBatch(5).toString());
+    }
+
+    @Test
+    void validate_andExtract_followReferences() throws IOException {
+        final byte[] bytes = write(UBTyping.BALANCED, repetitive(10));
+
+        assertEquals(10, new UbjsonRefParser(bytes).validate().size());
+        assertEquals(Json.value("active"), new UbjsonRefParser(bytes).extract("[9].status"));
+    }
+
+    @Test
+    void parseRecord_readsReferencedKeys() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final UbjsonRefWriter writer = new UbjsonRefWriter(output, UBTyping.BALANCED);
+        writer.writeRecord(new Item("active", "active"));
+        writer.writeRecord(new Item("status", "idle"));
+
+        final UbjsonRefParser parser = new UbjsonRefParser(output.toByteArray());
+        assertEquals(new Item("active", "active"), parser.parseRecord(Item.class));
+        assertEquals(new Item("status", "idle"), parser.parseRecord(Item.class));
+    }
+
+    @Test
+    void write_toByteBuffer_writesHeaderWithFirstValue() throws IOException {
+        assertDoesNotThrow(() -> new UbjsonRefWriter(ByteBuffer.allocate(1)));
+
+        final ByteBuffer buffer = ByteBuffer.allocate(16);
+        final UbjsonRefWriter writer = new UbjsonRefWriter(buffer, UBTyping.BALANCED);
+        assertEquals(0, buffer.position());
+        writer.write(Json.value("x"));
+        writer.write(Json.value("x"));
+
+        final UbjsonRefParser parser = new UbjsonRefParser(Arrays.copyOf(buffer.array(), buffer.position()));
+        assertEquals("\"x\"", parser.parse().toString());
+        assertEquals("\"x\"", parser.parse().toString());
+    }
+
+    @Test
+    void write_ignoresShapeCache() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final UbjsonRefWriter writer = new UbjsonRefWriter(output, UBTyping.BALANCED);
+        writer.setShapeCache(new UBShapeCache());
+        writer.write(repetitive(10));
+
+        assertEquals(output.size(), write(UBTyping.BALANCED, repetitive(10)).length);
+        assertEquals(repetitive(10).toString(), new UbjsonRefParser(output.toByteArray()).parse().toString());
+    }
+
+    @Test
+    void parse_throwsWithoutHeader() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new UbjsonWriter(output, UBTyping.BALANCED).write(Json.value("x"));
+
+        assertThrows(IOException.class, () -> new UbjsonRefParser(output.toByteArray()).parse());
+    }
+
+    @Test
+    void parse_throwsOnInvalidReference() {
+        final byte[] bytes = { 'R', 1, 'S', 'R', 'U', 0 };
+
+        assertThrows(IOException.class, () -> new UbjsonRefParser(bytes).parse());
+    }
+
+    private static JsonValue repetitive(final int size) {
+        final JsonArray array = new JsonArray();
+        for (int i = 0; i < size; i++) {
+            array.add(Json.object()
+                .add("id", i)
+                .add("status", i % 2 == 0 ? "idle" : "active")
+                .add("region", "north-america"));
+        }
+        return array;
+    }
+
+    private static byte[] write(final UBTyping typing, final JsonValue value) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new UbjsonRefWriter(output, typing).write(value);
+        return output.toByteArray();
+    }
+
+    record Item(String name, String status) {}
+}
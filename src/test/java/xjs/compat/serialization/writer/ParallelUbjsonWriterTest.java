@@ -0,0 +1,84 @@
+package xjs.compat.serialization.writer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xjs.compat.serialization.TestUtils;
+import xjs.compat.serialization.util.UBTyping;
+import xjs.data.Json;
+import xjs.data.JsonArray;
+import xjs.data.JsonObject;
+import xjs.data.JsonValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+public final class ParallelUbjsonWriterTest {
+
+    @Test
+    void write_matchesSequentialWriter_withSizedContainers() throws IOException {
+        assertWritesEqually(UBTyping.BALANCED);
+    }
+
+    @Test
+    void write_matchesSequentialWriter_withGenericContainers() throws IOException {
+        assertWritesEqually(UBTyping.WEAK);
+    }
+
+    @Test
+    void write_matchesSequentialWriter_withOptimizedContainers() throws IOException {
+        assertWritesEqually(UBTyping.STRONG);
+        assertWritesEqually(UBTyping.COMPRESSED);
+    }
+
+    @Test
+    void write_matchesSequentialWriter_withChannelAndBuffer(@TempDir final Path dir) throws IOException {
+        final JsonValue value = sample();
+        for (final UBTyping typing : UBTyping.values()) {
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            new UbjsonWriter(expected, typing).write(value);
+
+            final Path file = dir.resolve(typing + ".ubj");
+            try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                new ParallelUbjsonWriter(channel, typing, ForkJoinPool.commonPool(), 4).write(value);
+            }
+            TestUtils.assertBytesEqual(expected.toByteArray(), Files.readAllBytes(file));
+
+            final ByteBuffer buffer = ByteBuffer.allocate(expected.size());
+            new ParallelUbjsonWriter(buffer, typing, ForkJoinPool.commonPool(), 4).write(value);
+            TestUtils.assertBytesEqual(expected.toByteArray(), buffer.array());
+        }
+    }
+
+    private static void assertWritesEqually(final UBTyping typing) throws IOException {
+        final JsonValue value = sample();
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new UbjsonWriter(expected, typing).write(value);
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        new ParallelUbjsonWriter(actual, typing, ForkJoinPool.commonPool(), 4).write(value);
+        TestUtils.assertBytesEqual(expected.toByteArray(), actual.toByteArray());
+    }
+
+    private static JsonArray sample() {
+        final JsonArray array = new JsonArray();
+        final JsonObject names = new JsonObject();
+        final JsonObject numbers = new JsonObject();
+        for (int i = 0; i < 100; i++) {
+            array.add(Json.object()
+                .add("id", i)
+                .add("name", "item" + i)
+                .add("tags", Json.array(1, 2, 3, 4, 5)));
+            names.add("key" + i, "item" + i);
+            numbers.add("n" + i, i * 100_000);
+        }
+        array.add(names);
+        array.add(numbers);
+        array.add(Json.array("a", "b", "c", "d", "e", "f"));
+        return array;
+    }
+}
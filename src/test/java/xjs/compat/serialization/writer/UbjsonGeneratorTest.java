@@ -0,0 +1,115 @@
+package xjs.compat.serialization.writer;
+
+import org.junit.jupiter.api.Test;
+import xjs.compat.serialization.TestUtils;
+import xjs.compat.serialization.util.UBTyping;
+import xjs.data.Json;
+import xjs.data.JsonValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static xjs.compat.serialization.util.UBMarker.ARRAY_END;
+import static xjs.compat.serialization.util.UBMarker.ARRAY_START;
+import static xjs.compat.serialization.util.UBMarker.OBJ_END;
+import static xjs.compat.serialization.util.UBMarker.OBJ_START;
+import static xjs.compat.serialization.util.UBMarker.OPTIMIZED_SIZE;
+import static xjs.compat.serialization.util.UBMarker.STRING;
+import static xjs.compat.serialization.util.UBMarker.TRUE;
+import static xjs.compat.serialization.util.UBMarker.U_INT8;
+
+public final class UbjsonGeneratorTest {
+
+    @Test
+    void generate_withoutSizes_matchesGenericWriter() throws IOException {
+        final JsonValue expected = Json.object()
+            .add("id", 1)
+            .add("ratio", 2.5)
+            .add("tags", Json.array("a", "b"))
+            .add("ok", true)
+            .add("empty", Json.array());
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new UbjsonGenerator(output)
+            .beginObject()
+                .key("id").value(1)
+                .key("ratio").value(2.5)
+                .key("tags").beginArray().value("a").value("b").end()
+                .key("ok").value(true)
+                .key("empty").beginArray().end()
+            .end();
+
+        assertEquals(UBTyping.WEAK, expected, output);
+    }
+
+    @Test
+    void generate_withSizes_writesCountHeaders() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new UbjsonGenerator(output)
+            .beginObject(1)
+                .key("a").beginArray(2).value("x").value(true).end()
+            .end();
+
+        TestUtils.assertBytesEqual(
+            TestUtils.getBytes(OBJ_START, OPTIMIZED_SIZE, U_INT8, (byte) 1, U_INT8, (byte) 1, "a",
+                ARRAY_START, OPTIMIZED_SIZE, U_INT8, (byte) 2, STRING, U_INT8, (byte) 1, "x", TRUE),
+            output.toByteArray());
+    }
+
+    @Test
+    void generate_withSubtree_matchesWriter() throws IOException {
+        final JsonValue tree = Json.object().add("n", Json.array(1, 2, 3));
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new UbjsonGenerator(new UbjsonWriter(output, UBTyping.WEAK))
+            .beginArray().value(tree).end();
+
+        assertEquals(UBTyping.WEAK, Json.array().add(tree), output);
+    }
+
+    @Test
+    void end_throwsWhenSizedContainerIsIncomplete() throws IOException {
+        final UbjsonGenerator generator = new UbjsonGenerator(new ByteArrayOutputStream());
+        generator.beginArray(2).value(1);
+        assertThrows(IllegalStateException.class, generator::end);
+    }
+
+    @Test
+    void value_throwsWhenSizedContainerIsFull() throws IOException {
+        final UbjsonGenerator generator = new UbjsonGenerator(new ByteArrayOutputStream());
+        generator.beginArray(1).value(1);
+        assertThrows(IllegalStateException.class, () -> generator.value(2));
+    }
+
+    @Test
+    void value_throwsWhenSizedContainerIsEmpty() throws IOException {
+        final UbjsonGenerator generator = new UbjsonGenerator(new ByteArrayOutputStream());
+        generator.beginArray(0);
+        assertThrows(IllegalStateException.class, () -> generator.value(1));
+        generator.end().beginObject(0);
+        assertThrows(IllegalStateException.class, () -> generator.key("a"));
+    }
+
+    @Test
+    void end_writesEmptySizedContainers_inGenericForm() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new UbjsonGenerator(output).beginArray(0).end().beginObject(0).end();
+
+        TestUtils.assertBytesEqual(
+            TestUtils.getBytes(ARRAY_START, ARRAY_END, OBJ_START, OBJ_END), output.toByteArray());
+    }
+
+    @Test
+    void value_throwsWithoutKey_inObject() throws IOException {
+        final UbjsonGenerator generator = new UbjsonGenerator(new ByteArrayOutputStream());
+        generator.beginObject();
+        assertThrows(IllegalStateException.class, () -> generator.value(1));
+    }
+
+    private static void assertEquals(
+            final UBTyping typing, final JsonValue expected, final ByteArrayOutputStream actual) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new UbjsonWriter(output, typing).write(expected);
+        TestUtils.assertBytesEqual(output.toByteArray(), actual.toByteArray());
+    }
+}
@@ -1,15 +1,35 @@
 package xjs.compat.serialization.writer;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import xjs.data.Json;
+import xjs.data.JsonArray;
 import xjs.data.JsonLiteral;
+import xjs.data.JsonObject;
 import xjs.data.JsonValue;
 import xjs.compat.serialization.TestUtils;
+import xjs.compat.serialization.util.UBNumberArray;
+import xjs.compat.serialization.util.UBShapeCache;
 import xjs.compat.serialization.util.UBTyping;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static xjs.compat.serialization.util.UBMarker.ARRAY_END;
 import static xjs.compat.serialization.util.UBMarker.ARRAY_START;
 import static xjs.compat.serialization.util.UBMarker.FALSE;
@@ -17,6 +37,7 @@ import static xjs.compat.serialization.util.UBMarker.FLOAT32;
 import static xjs.compat.serialization.util.UBMarker.FLOAT64;
 import static xjs.compat.serialization.util.UBMarker.INT16;
 import static xjs.compat.serialization.util.UBMarker.INT32;
+import static xjs.compat.serialization.util.UBMarker.INT64;
 import static xjs.compat.serialization.util.UBMarker.NULL;
 import static xjs.compat.serialization.util.UBMarker.OBJ_END;
 import static xjs.compat.serialization.util.UBMarker.OBJ_START;
@@ -95,6 +116,25 @@ public final class UbjsonWriterTest {
                 (short) 128);
     }
 
+    @Test
+    void write_printsNumberArray_inBulk() {
+        assertWriteEquals(new UBNumberArray(new double[] { 1, 2 }),
+            ARRAY_START, OPTIMIZED_TYPE, FLOAT64, OPTIMIZED_SIZE, U_INT8, (byte) 2,
+                1.0,
+                2.0);
+    }
+
+    @Test
+    void write_compressesNumberArray_whenModified() {
+        final UBNumberArray array = new UBNumberArray(new double[] { 1, 2 });
+        array.add(3);
+        assertWriteEquals(array,
+            ARRAY_START, OPTIMIZED_SIZE, U_INT8, (byte) 3,
+                U_INT8, (byte) 1,
+                U_INT8, (byte) 2,
+                U_INT8, (byte) 3);
+    }
+
     @Test
     void writeGeneric_doesNotCompressArray() {
         assertGenericEquals(Json.array(1, 2, 3, 4, 5),
@@ -199,6 +239,253 @@ public final class UbjsonWriterTest {
             OBJ_END);
     }
 
+    @Test
+    void write_appendsToFile(@TempDir final Path dir) throws IOException {
+        final File file = dir.resolve("log.ubj").toFile();
+        for (int i = 0; i < 3; i++) {
+            try (final UbjsonWriter writer = new UbjsonWriter(file, UBTyping.BALANCED, true)) {
+                writer.write(Json.value(i));
+            }
+        }
+        TestUtils.assertBytesEqual(
+            TestUtils.getBytes(U_INT8, (byte) 0, U_INT8, (byte) 1, U_INT8, (byte) 2),
+            Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    void reset_reusesWriter_forNewOutput() throws IOException {
+        final ByteArrayOutputStream first = new ByteArrayOutputStream();
+        final ByteArrayOutputStream second = new ByteArrayOutputStream();
+        final UbjsonWriter writer = new UbjsonWriter(first, UBTyping.BALANCED);
+        writer.write(Json.value(1));
+        writer.reset(second, UBTyping.WEAK).write(Json.array(1, 2));
+        TestUtils.assertBytesEqual(TestUtils.getBytes(U_INT8, (byte) 1), first.toByteArray());
+        TestUtils.assertBytesEqual(
+            TestUtils.getBytes(ARRAY_START, U_INT8, (byte) 1, U_INT8, (byte) 2, ARRAY_END),
+            second.toByteArray());
+    }
+
+    @Test
+    void write_writesDeepNesting_withoutRecursion() throws IOException {
+        final int depth = 100_000;
+        JsonValue value = Json.value(7);
+        for (int i = 0; i < depth; i++) {
+            value = new JsonArray().add(value);
+        }
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new UbjsonWriter(output, UBTyping.WEAK).write(value);
+        final byte[] expected = new byte[depth * 2 + 2];
+        Arrays.fill(expected, 0, depth, ARRAY_START);
+        expected[depth] = U_INT8;
+        expected[depth + 1] = 7;
+        Arrays.fill(expected, depth + 2, expected.length, ARRAY_END);
+        TestUtils.assertBytesEqual(expected, output.toByteArray());
+    }
+
+    @Test
+    void write_encodesUtf8_likeStringGetBytes() {
+        final String s = "a\u00e9\u4e16\ud83d\ude00\ud800x";
+        final byte len = (byte) s.getBytes(StandardCharsets.UTF_8).length;
+        assertWriteEquals(Json.value(s), STRING, U_INT8, len, s);
+    }
+
+    @Test
+    void writeRecord_matchesEquivalentObject() throws IOException {
+        final Item item = new Item("x", 3, new int[] { 1, 2 }, null);
+        final JsonObject object = Json.object()
+            .add("name", "x")
+            .add("size", 3)
+            .add("sizes", Json.array(1, 2))
+            .add("child", JsonLiteral.jsonNull());
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new UbjsonWriter(expected, UBTyping.WEAK).write(object);
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        new UbjsonWriter(actual, UBTyping.WEAK).writeRecord(item);
+        TestUtils.assertBytesEqual(expected.toByteArray(), actual.toByteArray());
+    }
+
+    record Item(String name, int size, int[] sizes, Item child) {}
+
+    @Test
+    void write_writesInt64() {
+        assertWriteEquals(Json.value(Long.MAX_VALUE), INT64, Long.MAX_VALUE);
+    }
+
+    @Test
+    void write_withSmallBuffer_matchesDefaultBuffer() throws IOException {
+        final JsonValue value = Json.object()
+            .add("text", "x".repeat(100) + "\u00e9")
+            .add("numbers", new UBNumberArray(new double[] { 1.5, 2.5, 3.5, 4.5 }))
+            .add("values", Json.array(Long.MAX_VALUE, 1, -40000, 2.5));
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new UbjsonWriter(expected, UBTyping.BALANCED).write(value);
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        new UbjsonWriter(actual, UBTyping.BALANCED, 8).write(value);
+        TestUtils.assertBytesEqual(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    void sizeOf_matchesWrittenLength() throws IOException {
+        final JsonValue value = Json.object()
+            .add("text", "x".repeat(300) + "\u00e9")
+            .add("numbers", new UBNumberArray(new short[] { 1, 2, 3 }))
+            .add("ints", Json.array(1, 2, 3, 4, 5, 6))
+            .add("mixed", Json.array(Long.MAX_VALUE, -1, -40000, 2.5, 1e300))
+            .add("flags", Json.object().add("a", true).add("b", false))
+            .add("nested", Json.object().add("a", Json.array("x", "y")).add("b", Json.array("z")))
+            .add("empty", Json.array())
+            .add("none", JsonLiteral.jsonNull());
+        for (final UBTyping typing : UBTyping.values()) {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            new UbjsonWriter(output, typing).write(value);
+            assertEquals(output.size(), UbjsonWriter.sizeOf(value, typing), typing.name());
+        }
+    }
+
+    @Test
+    void write_toByteBuffer_matchesOutputStream() throws IOException {
+        final JsonValue value = Json.object()
+            .add("text", "x".repeat(100) + "\u00e9")
+            .add("numbers", new UBNumberArray(new double[] { 1.5, 2.5 }))
+            .add("values", Json.array(Long.MAX_VALUE, 1, -40000, 2.5));
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new UbjsonWriter(expected, UBTyping.BALANCED).write(value);
+
+        for (final ByteBuffer target : List.of(ByteBuffer.allocate(1024), ByteBuffer.allocateDirect(1024))) {
+            target.put((byte) 0);
+            new UbjsonWriter(target, UBTyping.BALANCED).write(value);
+            assertEquals(expected.size() + 1, target.position());
+
+            final byte[] actual = new byte[expected.size()];
+            target.flip().position(1);
+            target.get(actual);
+            TestUtils.assertBytesEqual(expected.toByteArray(), actual);
+        }
+    }
+
+    @Test
+    void write_toByteBuffer_throwsWhenFull() {
+        final ByteBuffer buffer = ByteBuffer.allocate(4);
+        final UbjsonWriter writer = new UbjsonWriter(buffer, UBTyping.BALANCED);
+        assertThrows(BufferOverflowException.class, () -> writer.write(Json.value("12345")));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void write_toByteBuffer_discardsFailedValue() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(6);
+        final UbjsonWriter writer = new UbjsonWriter(buffer, UBTyping.BALANCED);
+        writer.write(Json.value(1));
+        assertThrows(BufferOverflowException.class, () -> writer.write(Json.value("12345")));
+        assertEquals(2, buffer.position());
+        writer.write(Json.value(2));
+        assertEquals(4, buffer.position());
+        TestUtils.assertBytesEqual(
+            TestUtils.getBytes(U_INT8, (byte) 1, U_INT8, (byte) 2), Arrays.copyOf(buffer.array(), 4));
+    }
+
+    @Test
+    void toByteBuffer_allocatesExactSize() throws IOException {
+        final JsonValue value = Json.array("a", "bc", "def");
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new UbjsonWriter(expected, UBTyping.COMPRESSED).write(value);
+
+        final ByteBuffer buffer = UbjsonWriter.toByteBuffer(value, UBTyping.COMPRESSED, true);
+        assertEquals(expected.size(), buffer.remaining());
+        final byte[] actual = new byte[buffer.remaining()];
+        buffer.get(actual);
+        TestUtils.assertBytesEqual(expected.toByteArray(), actual);
+    }
+
+    @Test
+    void write_toFileChannel_matchesOutputStream(@TempDir final Path dir) throws IOException {
+        final JsonValue value = Json.object()
+            .add("large", "x".repeat(1000))
+            .add("small", "y");
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new UbjsonWriter(expected, UBTyping.BALANCED).write(value);
+
+        final Path file = dir.resolve("out.ubj");
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            new UbjsonWriter(channel, UBTyping.BALANCED, 64).write(value);
+        }
+        TestUtils.assertBytesEqual(expected.toByteArray(), Files.readAllBytes(file));
+    }
+
+    @Test
+    void toByteBuffer_reusesPlans_forLargeContainers() throws IOException {
+        final JsonArray value = new JsonArray();
+        for (int i = 0; i < 100; i++) {
+            value.add(Json.array(i, i * 1000, i * 100_000));
+            value.add(Json.value(i + 0.5));
+        }
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new UbjsonWriter(expected, UBTyping.COMPRESSED).write(value);
+
+        final ByteBuffer buffer = UbjsonWriter.toByteBuffer(value, UBTyping.COMPRESSED, false);
+        final byte[] actual = new byte[buffer.remaining()];
+        buffer.get(actual);
+        TestUtils.assertBytesEqual(expected.toByteArray(), actual);
+    }
+
+    @Test
+    void write_reanalyzesContainers_afterModification() throws IOException {
+        final JsonArray array = new JsonArray();
+        for (int i = 0; i < 100; i++) {
+            array.add(Json.value(i));
+        }
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        final UbjsonWriter writer = new UbjsonWriter(actual, UBTyping.BALANCED);
+        writer.write(array);
+        final int first = actual.size();
+        array.add(Json.value(100_000));
+        writer.write(array);
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new UbjsonWriter(expected, UBTyping.BALANCED).write(array);
+        final byte[] bytes = actual.toByteArray();
+        TestUtils.assertBytesEqual(expected.toByteArray(), Arrays.copyOfRange(bytes, first, bytes.length));
+    }
+
+    @Test
+    void write_withShapeCache_matchesRegularOutput() throws IOException {
+        final JsonArray array = new JsonArray();
+        for (int i = 0; i < 50; i++) {
+            array.add(Json.object().add("x", i * 10).add("y", -i));
+            array.add(Json.object().add("name", "n" + i).add("kind", "k" + i));
+            array.add(Json.object().add("ok", i % 2 == 0).add("tags", Json.array("a", "b")).add("\u00e9", i + 0.5));
+        }
+        final UBShapeCache cache = new UBShapeCache();
+        for (final UBTyping typing : UBTyping.values()) {
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            new UbjsonWriter(expected, typing).write(array);
+            final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            new UbjsonWriter(actual, typing).setShapeCache(cache).write(array);
+            TestUtils.assertBytesEqual(expected.toByteArray(), actual.toByteArray());
+        }
+    }
+
+    @Test
+    void write_withShapeCache_admitsShapesSeenTwice() throws IOException {
+        final String key = "k".repeat(300);
+        final UBShapeCache cache = new UBShapeCache();
+        final UbjsonWriter writer = new UbjsonWriter(OutputStream.nullOutputStream(), UBTyping.BALANCED);
+        writer.setShapeCache(cache);
+        final String[] keys = { "a", key };
+        final byte[] kinds = { UBShapeCache.NUMBER, STRING };
+
+        writer.write(Json.object().add("a", 1).add(key, "x"));
+        assertNull(cache.get(UBTyping.BALANCED, keys, kinds, 2));
+        writer.write(Json.object().add("a", 2).add(key, "y"));
+        assertNotNull(cache.get(UBTyping.BALANCED, keys, kinds, 2));
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new UbjsonWriter(expected, UBTyping.BALANCED).write(Json.object().add("a", 3).add(key, "z"));
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        new UbjsonWriter(actual, UBTyping.BALANCED).setShapeCache(cache).write(Json.object().add("a", 3).add(key, "z"));
+        TestUtils.assertBytesEqual(expected.toByteArray(), actual.toByteArray());
+    }
+
     private static void assertWriteEquals(final JsonValue value, final Object... bytes) {
         assertWriteEquals(UBTyping.BALANCED, value, bytes);
     }